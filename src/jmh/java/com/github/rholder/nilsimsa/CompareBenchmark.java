@@ -0,0 +1,103 @@
+/*
+ * Copyright 2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.nilsimsa;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This benchmark measures comparing two digests in each of their forms, and
+ * the cost of converting digests to and from text and generating transition
+ * tables.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class CompareBenchmark {
+
+    private String hex1;
+    private String hex2;
+    private int[] ints1;
+    private int[] ints2;
+    private NilsimsaDigest digest1;
+    private NilsimsaDigest digest2;
+    private String base64;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        // the input only decides which digests are compared, not how long that takes
+        byte[] data = Payload.ASCII.generate(4096, 53);
+        byte[] other = data.clone();
+        for (int i = 0; i < other.length; i += 64) {
+            other[i] ^= 1;
+        }
+        hex1 = new Nilsimsa().update(data).toHexDigest();
+        hex2 = new Nilsimsa().update(other).toHexDigest();
+        ints1 = Nilsimsa.unsafeToHex(hex1);
+        ints2 = Nilsimsa.unsafeToHex(hex2);
+        digest1 = NilsimsaDigest.fromHex(hex1);
+        digest2 = NilsimsaDigest.fromHex(hex2);
+        base64 = digest1.toBase64();
+    }
+
+    @Benchmark
+    public int compareStrings() {
+        return Nilsimsa.compare(hex1, hex2);
+    }
+
+    @Benchmark
+    public int compareInts() {
+        return Nilsimsa.compare(ints1, ints2);
+    }
+
+    @Benchmark
+    public int compareDigests() {
+        return digest1.compare(digest2);
+    }
+
+    @Benchmark
+    public int[] unsafeToHex() {
+        return Nilsimsa.unsafeToHex(hex1);
+    }
+
+    @Benchmark
+    public NilsimsaDigest fromHex() {
+        return NilsimsaDigest.fromHex(hex1);
+    }
+
+    @Benchmark
+    public String toBase64() {
+        return digest1.toBase64();
+    }
+
+    @Benchmark
+    public NilsimsaDigest fromBase64() {
+        return NilsimsaDigest.fromBase64(base64);
+    }
+
+    @Benchmark
+    public int[] generateTransitions() {
+        return Nilsimsa.generateTransitions(53);
+    }
+}
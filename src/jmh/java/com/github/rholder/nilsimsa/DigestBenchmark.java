@@ -0,0 +1,77 @@
+/*
+ * Copyright 2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.nilsimsa;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This benchmark measures the cost of producing a digest from an already
+ * hashed input, in each of the available output forms.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class DigestBenchmark {
+
+    @Param({"ASCII", "RANDOM", "UTF8"})
+    public Payload payload;
+
+    private Nilsimsa nilsimsa;
+    private final long[] words = new long[4];
+    private final char[] hex = new char[64];
+
+    @Setup(Level.Trial)
+    public void setup() {
+        nilsimsa = new Nilsimsa().update(payload.generate(4096, 53));
+    }
+
+    @Benchmark
+    public int[] digest() {
+        return nilsimsa.digest();
+    }
+
+    @Benchmark
+    public String toHexDigest() {
+        return nilsimsa.toHexDigest();
+    }
+
+    @Benchmark
+    public NilsimsaDigest toDigest() {
+        return nilsimsa.toDigest();
+    }
+
+    @Benchmark
+    public long[] digestIntoLongs() {
+        nilsimsa.digestInto(words, 0);
+        return words;
+    }
+
+    @Benchmark
+    public char[] digestIntoChars() {
+        nilsimsa.toHexDigest(hex, 0);
+        return hex;
+    }
+}
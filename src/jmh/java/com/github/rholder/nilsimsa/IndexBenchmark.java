@@ -0,0 +1,137 @@
+/*
+ * Copyright 2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.nilsimsa;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+
+/**
+ * This benchmark compares {@link NilsimsaIndex} lookups across block counts
+ * and probe radii with a linear {@link NilsimsaScanner} scan over the same
+ * digests. The corpus is groups of 4 digests, each a random root followed by
+ * 3 copies of it with 4 - 32 bits flipped, and each query is a digest from
+ * the corpus with 8 bits flipped. The recall and per-query probe and
+ * candidate counts of each layout are printed once per trial, measured
+ * against the scan.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class IndexBenchmark {
+
+    @Param({"100000"})
+    public int size;
+
+    @Param({"96"})
+    public int threshold;
+
+    @Param({"4", "8", "16", "32"})
+    public int blocks;
+
+    @Param({"0", "1", "2", "3"})
+    public int radius;
+
+    private long[] packed;
+    private NilsimsaIndex index;
+    private NilsimsaDigest[] queries;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(53);
+        packed = new long[size << 2];
+        for (int i = 0; i < size; i++) {
+            int o = i << 2;
+            if (i % 4 == 0) {
+                for (int w = 0; w < 4; w++) {
+                    packed[o + w] = random.nextLong();
+                }
+            } else {
+                System.arraycopy(packed, (i & ~3) << 2, packed, o, 4);
+                flip(packed, o, random, 4 + random.nextInt(29));
+            }
+        }
+
+        index = new NilsimsaIndex(blocks, radius);
+        for (int i = 0; i < size; i++) {
+            index.put(i, NilsimsaDigest.fromLongs(packed, i << 2));
+        }
+
+        queries = new NilsimsaDigest[1024];
+        for (int q = 0; q < queries.length; q++) {
+            long[] words = new long[4];
+            System.arraycopy(packed, random.nextInt(size) << 2, words, 0, 4);
+            flip(words, 0, random, 8);
+            queries[q] = NilsimsaDigest.fromLongs(words, 0);
+        }
+
+        long expected = 0;
+        long found = 0;
+        long probes = 0;
+        long candidates = 0;
+        for (NilsimsaDigest query : queries) {
+            expected += NilsimsaScanner.threshold(query, packed, threshold).size();
+            NilsimsaIndex.Result result = index.lookup(query, threshold);
+            found += result.size();
+            probes += result.getProbes();
+            candidates += result.getCandidates();
+        }
+        System.out.printf("%nblocks %d, radius %d: exact to %d bits, recall %.3f, %.1f probes, %.1f candidates per query%n",
+                blocks, radius, index.getMaxExactDistance(), (double) found / expected,
+                (double) probes / queries.length, (double) candidates / queries.length);
+    }
+
+    /**
+     * Flip the given number of distinct bits in the digest at offset.
+     */
+    private static void flip(long[] words, int offset, Random random, int bits) {
+        long[] flipped = new long[4];
+        while (bits > 0) {
+            int bit = random.nextInt(256);
+            long mask = 1L << (bit & 63);
+            if ((flipped[bit >> 6] & mask) == 0) {
+                flipped[bit >> 6] |= mask;
+                words[offset + (bit >> 6)] ^= mask;
+                bits--;
+            }
+        }
+    }
+
+    private NilsimsaDigest nextQuery() {
+        return queries[next++ & (queries.length - 1)];
+    }
+
+    @Benchmark
+    public NilsimsaIndex.Result lookup() {
+        return index.lookup(nextQuery(), threshold);
+    }
+
+    @Benchmark
+    public NilsimsaMatches scanThreshold() {
+        return NilsimsaScanner.threshold(nextQuery(), packed, threshold);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.nilsimsa;
+
+import java.nio.charset.Charset;
+import java.util.Random;
+
+/**
+ * This enum generates the kinds of input the benchmarks hash. Each payload is
+ * deterministic for a given size and seed so that runs are comparable.
+ */
+public enum Payload {
+
+    /**
+     * Lowercase words separated by spaces, the shape of most mail and text.
+     */
+    ASCII {
+        @Override
+        byte[] generate(int size, Random random) {
+            byte[] data = new byte[size];
+            for (int i = 0; i < size; i++) {
+                data[i] = random.nextInt(6) == 0 ? (byte) ' ' : (byte) ('a' + random.nextInt(26));
+            }
+            return data;
+        }
+    },
+
+    /**
+     * Uniformly random bytes, the worst case for locality in the accumulators.
+     */
+    RANDOM {
+        @Override
+        byte[] generate(int size, Random random) {
+            byte[] data = new byte[size];
+            random.nextBytes(data);
+            return data;
+        }
+    },
+
+    /**
+     * UTF-8 encoded text mixing ASCII, Greek and CJK characters.
+     */
+    UTF8 {
+        @Override
+        byte[] generate(int size, Random random) {
+            byte[] data = new byte[size];
+            byte[] chunk = sample(random).getBytes(Charset.forName("UTF-8"));
+            for (int i = 0; i < size; i += chunk.length) {
+                System.arraycopy(chunk, 0, data, i, Math.min(chunk.length, size - i));
+            }
+            return data;
+        }
+
+        private String sample(Random random) {
+            StringBuilder b = new StringBuilder();
+            for (int i = 0; i < 64 * 1024; i++) {
+                switch (random.nextInt(3)) {
+                    case 0:
+                        b.append((char) ('a' + random.nextInt(26)));
+                        break;
+                    case 1:
+                        b.append((char) (0x03B1 + random.nextInt(25)));
+                        break;
+                    default:
+                        b.append((char) (0x4E00 + random.nextInt(0x5000)));
+                        break;
+                }
+            }
+            return b.toString();
+        }
+    };
+
+    /**
+     * Return size bytes of this payload.
+     *
+     * @param size number of bytes to generate
+     * @param seed seed for the random source
+     */
+    public byte[] generate(int size, long seed) {
+        return generate(size, new Random(seed));
+    }
+
+    abstract byte[] generate(int size, Random random);
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.nilsimsa;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * This benchmark measures scoring one query against many digests, comparing
+ * the table-driven {@link Nilsimsa#compare(int[], int[])} with the packed
+ * popcount kernel in {@link NilsimsaScanner}.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class ScanBenchmark {
+
+    @Param({"1000", "100000"})
+    public int candidates;
+
+    private int[] query;
+    private int[][] digests;
+    private NilsimsaDigest queryDigest;
+    private long[] packed;
+    private long[] queries;
+    private int[] scores;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(53);
+        byte[] data = new byte[256];
+        List<NilsimsaDigest> list = new ArrayList<NilsimsaDigest>();
+        for (int i = 0; i < candidates; i++) {
+            random.nextBytes(data);
+            list.add(new Nilsimsa().update(data).toDigest());
+        }
+        digests = new int[candidates][];
+        for (int i = 0; i < candidates; i++) {
+            digests[i] = list.get(i).toInts();
+        }
+        queryDigest = list.get(0);
+        query = queryDigest.toInts();
+        packed = NilsimsaScanner.pack(list);
+        queries = NilsimsaScanner.pack(list.subList(0, 16));
+        scores = new int[candidates];
+    }
+
+    @Benchmark
+    public int[] compareInts() {
+        for (int i = 0; i < digests.length; i++) {
+            scores[i] = Nilsimsa.compare(query, digests[i]);
+        }
+        return scores;
+    }
+
+    @Benchmark
+    public int[] packedScores() {
+        NilsimsaScanner.scores(queryDigest, packed, scores, 0);
+        return scores;
+    }
+
+    @Benchmark
+    public int[] packedScores16Queries() {
+        return NilsimsaScanner.scores(queries, packed);
+    }
+}
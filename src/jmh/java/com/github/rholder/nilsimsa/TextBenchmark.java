@@ -0,0 +1,68 @@
+/*
+ * Copyright 2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.nilsimsa;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.Charset;
+
+/**
+ * This benchmark compares hashing a String directly against encoding it
+ * with getBytes first. Run with the GC profiler to see the difference in
+ * allocation as well as time.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class TextBenchmark {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Param({"64", "1024", "65536"})
+    public int size;
+
+    @Param({"ASCII", "UTF8"})
+    public Payload payload;
+
+    private String text;
+    private Nilsimsa nilsimsa;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        text = new String(payload.generate(size, 53), UTF8);
+        nilsimsa = new Nilsimsa();
+    }
+
+    @Benchmark
+    public Nilsimsa getBytes() {
+        return nilsimsa.reset().update(text.getBytes(UTF8));
+    }
+
+    @Benchmark
+    public Nilsimsa charSequence() {
+        return nilsimsa.reset().update(text);
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.nilsimsa;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This benchmark measures hashing throughput across input sizes and payload
+ * types. Divide the size by the reported time per operation for bytes per
+ * second.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class UpdateBenchmark {
+
+    @Param({"64", "1024", "65536", "1048576", "67108864"})
+    public int size;
+
+    @Param({"ASCII", "RANDOM", "UTF8"})
+    public Payload payload;
+
+    private byte[] data;
+    private Nilsimsa nilsimsa;
+    private NilsimsaChunker chunker;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        data = payload.generate(size, 53);
+        nilsimsa = new Nilsimsa();
+        chunker = new NilsimsaChunker();
+    }
+
+    /**
+     * Hash into a reused instance, the cost of the update loop alone.
+     */
+    @Benchmark
+    public Nilsimsa update() {
+        return nilsimsa.reset().update(data);
+    }
+
+    /**
+     * Hash with a new instance and digest, the way most callers use the API.
+     */
+    @Benchmark
+    public String hexDigest() {
+        return new Nilsimsa().update(data).toHexDigest();
+    }
+
+    /**
+     * Chunk and hash into a signature, the cost of content-defined chunking
+     * on top of the update loop.
+     */
+    @Benchmark
+    public NilsimsaSignature signature() {
+        return chunker.update(data).toSignature();
+    }
+}
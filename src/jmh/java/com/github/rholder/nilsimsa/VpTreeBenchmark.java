@@ -0,0 +1,109 @@
+/*
+ * Copyright 2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.nilsimsa;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+
+/**
+ * This benchmark compares queries against a {@link NilsimsaVpTree} with a
+ * linear {@link NilsimsaScanner} scan over the same digests, across
+ * thresholds. The corpus is random digests with groups of near duplicates,
+ * and each query is a slight variation of a digest in the corpus.
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class VpTreeBenchmark {
+
+    @Param({"100000", "1000000"})
+    public int size;
+
+    @Param({"124", "116", "108", "96", "64"})
+    public int threshold;
+
+    private long[] packed;
+    private NilsimsaVpTree tree;
+    private NilsimsaDigest[] queries;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(53);
+        packed = new long[size << 2];
+        for (int i = 0; i < size; i++) {
+            int o = i << 2;
+            if (i % 4 == 0) {
+                for (int w = 0; w < 4; w++) {
+                    packed[o + w] = random.nextLong();
+                }
+            } else {
+                System.arraycopy(packed, o - 4, packed, o, 4);
+                flip(packed, o, random, 4);
+            }
+        }
+        tree = new NilsimsaVpTree(packed);
+
+        queries = new NilsimsaDigest[256];
+        for (int q = 0; q < queries.length; q++) {
+            long[] words = new long[4];
+            System.arraycopy(packed, random.nextInt(size) << 2, words, 0, 4);
+            flip(words, 0, random, 4);
+            queries[q] = NilsimsaDigest.fromLongs(words, 0);
+        }
+    }
+
+    private static void flip(long[] words, int offset, Random random, int bits) {
+        for (int b = 0; b < bits; b++) {
+            words[offset + random.nextInt(4)] ^= 1L << random.nextInt(64);
+        }
+    }
+
+    private NilsimsaDigest nextQuery() {
+        return queries[next++ & (queries.length - 1)];
+    }
+
+    @Benchmark
+    public NilsimsaMatches treeThreshold() {
+        return tree.threshold(nextQuery(), threshold);
+    }
+
+    @Benchmark
+    public NilsimsaMatches scanThreshold() {
+        return NilsimsaScanner.threshold(nextQuery(), packed, threshold);
+    }
+
+    @Benchmark
+    public NilsimsaMatches treeTopK() {
+        return tree.topK(nextQuery(), 10, threshold);
+    }
+
+    @Benchmark
+    public NilsimsaMatches scanTopK() {
+        return NilsimsaScanner.topK(nextQuery(), packed, 10, threshold);
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.nilsimsa;
+
+import java.util.Arrays;
+
+/**
+ * This is a minimal open addressing hash map from long keys to non-negative
+ * int values using linear probing, so that nothing is boxed. It is not thread
+ * safe.
+ */
+final class LongIntHashMap {
+
+    /**
+     * Value returned for a key that is not in the map.
+     */
+    static final int MISSING = -1;
+
+    private long[] keys;
+
+    // MISSING marks an empty slot
+    private int[] values;
+    private int mask;
+    private int size;
+
+    LongIntHashMap() {
+        this(16);
+    }
+
+    LongIntHashMap(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(expected, 4) * 2 - 1) << 1;
+        keys = new long[capacity];
+        values = new int[capacity];
+        fill(values);
+        mask = capacity - 1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Return the value for the given key or {@link #MISSING}.
+     */
+    int get(long key) {
+        for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+            int value = values[i];
+            if (value == MISSING || keys[i] == key) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Associate a non-negative value with the given key, returning the
+     * previous value or {@link #MISSING}.
+     */
+    int put(long key, int value) {
+        int i = mix(key) & mask;
+        for (; values[i] != MISSING; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                int previous = values[i];
+                values[i] = value;
+                return previous;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size * 2 > keys.length) {
+            resize();
+        }
+        return MISSING;
+    }
+
+    /**
+     * Remove the given key, returning its value or {@link #MISSING}.
+     */
+    int remove(long key) {
+        int i = mix(key) & mask;
+        for (; values[i] != MISSING; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                int previous = values[i];
+                shiftBack(i);
+                size--;
+                return previous;
+            }
+        }
+        return MISSING;
+    }
+
+    /**
+     * Close the gap left at the given slot by moving back any following
+     * entries that would no longer be reachable from their home slot.
+     */
+    private void shiftBack(int gap) {
+        for (int i = (gap + 1) & mask; values[i] != MISSING; i = (i + 1) & mask) {
+            int home = mix(keys[i]) & mask;
+            // move the entry if its home slot is not within (gap, i]
+            if (((i - home) & mask) >= ((i - gap) & mask)) {
+                keys[gap] = keys[i];
+                values[gap] = values[i];
+                gap = i;
+            }
+        }
+        values[gap] = MISSING;
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[oldKeys.length << 1];
+        values = new int[oldValues.length << 1];
+        fill(values);
+        mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != MISSING) {
+                int j = mix(oldKeys[i]) & mask;
+                while (values[j] != MISSING) {
+                    j = (j + 1) & mask;
+                }
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+
+    private static void fill(int[] values) {
+        Arrays.fill(values, MISSING);
+    }
+
+    /**
+     * Return a well distributed 32-bit hash of the given key, the finalizer
+     * of MurmurHash3.
+     */
+    static int mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
@@ -38,6 +38,21 @@
 
 package com.github.rholder.nilsimsa;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+
 import static java.util.Arrays.fill;
 
 /**
@@ -93,14 +108,39 @@ public class Nilsimsa {
             0x04, 0x05, 0x05, 0x06, 0x05, 0x06, 0x06, 0x07, 0x05, 0x06, 0x06, 0x07, 0x06, 0x07, 0x07, 0x08
     };
 
-    private int[] transitions;
+    // snapshot format constants
+    private static final int SNAPSHOT_MAGIC = 0x4E4C5353;
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int SNAPSHOT_VARINT = 1;
+    private static final int SNAPSHOT_CUSTOM_TABLE = 2;
+    private static final int SNAPSHOT_HEADER_SIZE = 4 + 1 + 1 + 8 + 4 + 4;
+
+    // size of the buffer used when reading from streams and channels
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    // largest part of a file mapped at once
+    private static final long MAPPED_SEGMENT_SIZE = 64L * 1024 * 1024;
+
+    // characters encoded at a time when hashing text
+    private static final int TEXT_CHUNK = 1024;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private final NilsimsaTables tables;
     private long count;
     private int[] acc;
     private int[] window;
+    private int[] head;
+
+    // scratch space for encoding text, allocated on first use
+    private char[] chars;
+    private byte[] encoded;
 
     public Nilsimsa(int[] transitions) {
 
-        this.transitions = transitions;
+        this.tables = NilsimsaTables.forTransitions(transitions);
 
         // num characters seen
         count = 0;
@@ -111,6 +151,10 @@ public class Nilsimsa {
         // window for the last four characters seen (-1 until set)
         window = new int[4];
         fill(window, -1);
+
+        // the first four characters seen (-1 until set), needed to merge
+        head = new int[4];
+        fill(head, -1);
     }
 
     /**
@@ -128,49 +172,780 @@ public class Nilsimsa {
      * @return this instance for chaining
      */
     public Nilsimsa update(byte[] data) {
+        return update(data, 0, data.length);
+    }
+
+    /**
+     * Update accumulators for 0-8 trigrams for each character in the given
+     * range of the array and up to 4 of the previously seen characters.
+     *
+     * @param data input for the hash
+     * @param offset index of the first byte to hash
+     * @param length number of bytes to hash
+     * @return this instance for chaining
+     */
+    public Nilsimsa update(byte[] data, int offset, int length) {
+        if (offset < 0 || length < 0 || offset > data.length - length) {
+            throw new IndexOutOfBoundsException("Range [" + offset + ", " + offset + " + " + length
+                    + ") out of bounds for length " + data.length);
+        }
+        NilsimsaListener listener = NilsimsaMetrics.listener;
+        if (listener == null) {
+            hash(data, offset, length);
+        } else {
+            long start = System.nanoTime();
+            hash(data, offset, length);
+            listener.updated(length, System.nanoTime() - start);
+        }
+        return this;
+    }
 
-        // increment accumulators for trigrams
-        for (byte character : data) {
+    /**
+     * Hash the given range of the array, which has already been checked.
+     */
+    private void hash(byte[] data, int offset, int length) {
+        final int[] acc = this.acc;
+        final NilsimsaTables tables = this.tables;
+        final int end = offset + length;
+
+        int i = offset;
 
+        // ramp-up over the first 4 characters, where the window is not yet full
+        while (i < end && count < 4) {
             // remove signage, just in case
-            int ch = character & 0xFF;
-            count++;
+            rampUp(data[i++] & 0xFF);
+        }
+
+        if (i == end) {
+            return;
+        }
+
+        // steady state, a full window is kept in locals and there is no branching per character
+        int w0 = window[0];
+        int w1 = window[1];
+        int w2 = window[2];
+        int w3 = window[3];
+        count += end - i;
+        for (; i < end; i++) {
+            int ch = data[i] & 0xFF;
+            tables.update(acc, ch, w0, w1, w2, w3);
+            w3 = w2;
+            w2 = w1;
+            w1 = w0;
+            w0 = ch;
+        }
+
+        window[0] = w0;
+        window[1] = w1;
+        window[2] = w2;
+        window[3] = w3;
+    }
+
+    /**
+     * Update accumulators for 0-8 trigrams for each remaining byte in the
+     * given buffer. Heap and direct buffers are both read in place without
+     * copying. The position of the buffer is advanced to its limit.
+     *
+     * @param data input for the hash
+     * @return this instance for chaining
+     */
+    public Nilsimsa update(ByteBuffer data) {
+        NilsimsaListener listener = NilsimsaMetrics.listener;
+        if (listener == null) {
+            hash(data);
+        } else {
+            long start = System.nanoTime();
+            int length = data.remaining();
+            hash(data);
+            listener.updated(length, System.nanoTime() - start);
+        }
+        return this;
+    }
+
+    /**
+     * Hash the remaining bytes of the buffer and advance its position to its
+     * limit.
+     */
+    private void hash(ByteBuffer data) {
+        if (data.hasArray()) {
+            hash(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            data.position(data.limit());
+            return;
+        }
+
+        final int[] acc = this.acc;
+        final NilsimsaTables tables = this.tables;
+        final int end = data.limit();
+
+        int i = data.position();
+        while (i < end && count < 4) {
+            rampUp(data.get(i++) & 0xFF);
+        }
+        data.position(end);
+
+        if (i == end) {
+            return;
+        }
+
+        int w0 = window[0];
+        int w1 = window[1];
+        int w2 = window[2];
+        int w3 = window[3];
+        count += end - i;
+        for (; i < end; i++) {
+            int ch = data.get(i) & 0xFF;
+            tables.update(acc, ch, w0, w1, w2, w3);
+            w3 = w2;
+            w2 = w1;
+            w1 = w0;
+            w0 = ch;
+        }
+
+        window[0] = w0;
+        window[1] = w1;
+        window[2] = w2;
+        window[3] = w3;
+    }
+
+    /**
+     * Update accumulators for the UTF-8 encoding of the given text. The
+     * digest is the same as hashing {@code data.toString().getBytes("UTF-8")},
+     * but the text is encoded a chunk at a time into a small buffer kept by
+     * this instance instead of being copied into a new array.
+     *
+     * @param data input for the hash
+     * @return this instance for chaining
+     */
+    public Nilsimsa update(CharSequence data) {
+        return update(data, UTF8);
+    }
+
+    /**
+     * Update accumulators for the given text in the given encoding. The
+     * digest is the same as hashing {@code data.toString().getBytes(charset)},
+     * including the replacement of unpaired surrogates and unmappable
+     * characters. UTF-8, ISO-8859-1 and US-ASCII are encoded directly; other
+     * charsets go through a {@link CharsetEncoder}.
+     *
+     * @param data input for the hash
+     * @param charset the encoding of the text to hash
+     * @return this instance for chaining
+     */
+    public Nilsimsa update(CharSequence data, Charset charset) {
+        NilsimsaListener listener = NilsimsaMetrics.listener;
+        if (listener == null) {
+            hash(data, charset);
+        } else {
+            long start = System.nanoTime();
+            long length = hash(data, charset);
+            listener.updated(length, System.nanoTime() - start);
+        }
+        return this;
+    }
+
+    /**
+     * Update accumulators for the UTF-8 encoding of the given range of
+     * characters, the same as hashing
+     * {@code new String(data, offset, length).getBytes("UTF-8")}.
+     *
+     * @param data input for the hash
+     * @param offset index of the first character to hash
+     * @param length number of characters to hash
+     * @return this instance for chaining
+     */
+    public Nilsimsa update(char[] data, int offset, int length) {
+        return update(data, offset, length, UTF8);
+    }
+
+    /**
+     * Update accumulators for the given range of characters in the given
+     * encoding, the same as hashing
+     * {@code new String(data, offset, length).getBytes(charset)}.
+     *
+     * @param data input for the hash
+     * @param offset index of the first character to hash
+     * @param length number of characters to hash
+     * @param charset the encoding of the text to hash
+     * @return this instance for chaining
+     */
+    public Nilsimsa update(char[] data, int offset, int length, Charset charset) {
+        if (offset < 0 || length < 0 || offset > data.length - length) {
+            throw new IndexOutOfBoundsException("Range [" + offset + ", " + offset + " + " + length
+                    + ") out of bounds for length " + data.length);
+        }
+        NilsimsaListener listener = NilsimsaMetrics.listener;
+        if (listener == null) {
+            hash(data, offset, length, charset);
+        } else {
+            long start = System.nanoTime();
+            long encoded = hash(data, offset, length, charset);
+            listener.updated(encoded, System.nanoTime() - start);
+        }
+        return this;
+    }
+
+    /**
+     * Hash the given text and return the number of bytes it encoded to.
+     */
+    private long hash(CharSequence data, Charset charset) {
+        int limit = singleByteLimit(charset);
+        if (limit < 0) {
+            return hashEncoded(CharBuffer.wrap(data), charset);
+        }
+        if (data instanceof String) {
+            // bulk copies beat a virtual charAt per character
+            char[] chars = chars();
+            String s = (String) data;
+            long encoded = 0;
+            for (int start = 0; start < s.length(); ) {
+                int end = Math.min(start + TEXT_CHUNK, s.length());
+                if (end < s.length() && Character.isHighSurrogate(s.charAt(end - 1))) {
+                    // keep a surrogate pair in the same chunk
+                    end--;
+                }
+                s.getChars(start, end, chars, 0);
+                encoded += hashChars(chars, 0, end - start, limit);
+                start = end;
+            }
+            return encoded;
+        }
+        if (data instanceof CharBuffer && ((CharBuffer) data).hasArray()) {
+            CharBuffer buffer = (CharBuffer) data;
+            return hashChars(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(), limit);
+        }
+        return hashEncoded(CharBuffer.wrap(data), charset);
+    }
+
+    /**
+     * Hash the given range of characters and return the number of bytes they
+     * encoded to.
+     */
+    private long hash(char[] data, int offset, int length, Charset charset) {
+        int limit = singleByteLimit(charset);
+        if (limit < 0) {
+            return hashEncoded(CharBuffer.wrap(data, offset, length), charset);
+        }
+        return hashChars(data, offset, length, limit);
+    }
 
-            if (window[1] > -1) {
-                // seen at least 3 characters
-                acc[tran3(ch, window[0], window[1], 0)] += 1;
+    /**
+     * Encode the given range of characters a chunk at a time and hash the
+     * bytes, returning how many there were. A limit of 0 encodes UTF-8,
+     * otherwise characters below the limit are encoded as a single byte and
+     * the rest as '?', like ISO-8859-1 with a limit of 0x100 and US-ASCII
+     * with 0x80. Unpaired surrogates become '?' as well.
+     */
+    private long hashChars(char[] data, int offset, int length, int limit) {
+        byte[] encoded = encoded();
+        final int end = offset + length;
+        final int full = encoded.length - 4;
+        long total = 0;
+        int n = 0;
+        for (int i = offset; i < end; i++) {
+            if (n > full) {
+                hash(encoded, 0, n);
+                total += n;
+                n = 0;
+            }
+            int c = data[i];
+            if (c < 0x80) {
+                encoded[n++] = (byte) c;
+            } else if (limit != 0) {
+                if (c < limit) {
+                    encoded[n++] = (byte) c;
+                } else {
+                    if (Character.isHighSurrogate((char) c) && i + 1 < end && Character.isLowSurrogate(data[i + 1])) {
+                        // a pair is a single unmappable character
+                        i++;
+                    }
+                    encoded[n++] = '?';
+                }
+            } else if (c < 0x800) {
+                encoded[n++] = (byte) (0xC0 | c >> 6);
+                encoded[n++] = (byte) (0x80 | c & 0x3F);
+            } else if (c < Character.MIN_SURROGATE || c > Character.MAX_SURROGATE) {
+                encoded[n++] = (byte) (0xE0 | c >> 12);
+                encoded[n++] = (byte) (0x80 | c >> 6 & 0x3F);
+                encoded[n++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate((char) c) && i + 1 < end && Character.isLowSurrogate(data[i + 1])) {
+                int cp = Character.toCodePoint((char) c, data[++i]);
+                encoded[n++] = (byte) (0xF0 | cp >> 18);
+                encoded[n++] = (byte) (0x80 | cp >> 12 & 0x3F);
+                encoded[n++] = (byte) (0x80 | cp >> 6 & 0x3F);
+                encoded[n++] = (byte) (0x80 | cp & 0x3F);
+            } else {
+                encoded[n++] = '?';
             }
+        }
+        hash(encoded, 0, n);
+        return total + n;
+    }
 
-            if (window[2] > -1) {
-                // seen at least 4 characters
-                acc[tran3(ch, window[0], window[2], 1)] += 1;
-                acc[tran3(ch, window[1], window[2], 2)] += 1;
+    /**
+     * Encode the given characters with a new encoder for the charset and hash
+     * the bytes, returning how many there were.
+     */
+    private long hashEncoded(CharBuffer data, Charset charset) {
+        CharsetEncoder encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        byte[] encoded = encoded();
+        ByteBuffer out = ByteBuffer.wrap(encoded);
+        long total = 0;
+        boolean flushed = false;
+        while (true) {
+            CoderResult result = flushed ? encoder.flush(out) : encoder.encode(data, out, true);
+            hash(encoded, 0, out.position());
+            total += out.position();
+            out.clear();
+            if (!result.isOverflow()) {
+                if (flushed) {
+                    return total;
+                }
+                flushed = true;
             }
+        }
+    }
+
+    /**
+     * Return the charset's single byte limit for {@link #hashChars}, or -1
+     * if it needs an encoder.
+     */
+    private static int singleByteLimit(Charset charset) {
+        if (charset.equals(UTF8)) {
+            return 0;
+        }
+        if (charset.equals(LATIN1)) {
+            return 0x100;
+        }
+        if (charset.equals(ASCII)) {
+            return 0x80;
+        }
+        return -1;
+    }
+
+    private char[] chars() {
+        if (chars == null) {
+            chars = new char[TEXT_CHUNK];
+        }
+        return chars;
+    }
+
+    private byte[] encoded() {
+        if (encoded == null) {
+            encoded = new byte[3 * TEXT_CHUNK];
+        }
+        return encoded;
+    }
 
-            if (window[3] > -1) {
-                // we have a full window of characters
-                acc[tran3(ch, window[0], window[3], 3)] += 1;
-                acc[tran3(ch, window[1], window[3], 4)] += 1;
-                acc[tran3(ch, window[2], window[3], 5)] += 1;
+    /**
+     * Update accumulators with everything read from the given stream until
+     * its end, using a fixed size buffer. The stream is not closed.
+     *
+     * @param in input for the hash
+     * @return this instance for chaining
+     * @throws IOException if reading from the stream fails
+     */
+    public Nilsimsa update(InputStream in) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            update(buffer, 0, read);
+        }
+        return this;
+    }
+
+    /**
+     * Update accumulators with everything read from the given channel until
+     * its end, using a fixed size buffer. The channel is not closed.
+     *
+     * @param in input for the hash
+     * @return this instance for chaining
+     * @throws IOException if reading from the channel fails
+     */
+    public Nilsimsa update(ReadableByteChannel in) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        while (in.read(buffer) != -1) {
+            buffer.flip();
+            update(buffer);
+            buffer.clear();
+        }
+        return this;
+    }
 
-                // duplicate hashes, used to maintain 8 trigrams per character
-                acc[tran3(window[3], window[0], ch, 6)] += 1;
-                acc[tran3(window[3], window[2], ch, 7)] += 1;
+    /**
+     * Update accumulators with the contents of the given file. The file is
+     * memory-mapped one segment at a time, so it is never copied onto the
+     * heap and files of any size can be hashed.
+     *
+     * @param file input for the hash
+     * @return this instance for chaining
+     * @throws IOException if reading from the file fails
+     */
+    public Nilsimsa update(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            for (long position = 0; position < size; position += MAPPED_SEGMENT_SIZE) {
+                update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAPPED_SEGMENT_SIZE, size - position)));
             }
+        } finally {
+            in.close();
+        }
+        return this;
+    }
 
-            // adjust last seen chars by sliding the window over
-            window[3] = window[2];
-            window[2] = window[1];
-            window[1] = window[0];
-            window[0] = ch;
+    /**
+     * Return the digest of the contents of the given file using the default
+     * "53"-based transition table.
+     *
+     * @param file input for the hash
+     * @return the digest of the file
+     * @throws IOException if reading from the file fails
+     */
+    public static NilsimsaDigest hashFile(File file) throws IOException {
+        return new Nilsimsa().update(file).toDigest();
+    }
+
+    /**
+     * Merge the state of another instance into this one, as if all the data
+     * seen by next had been seen by this instance right after its own data.
+     * Both must use the same transition table. The accumulators and counts
+     * simply add up, except for the trigrams that span the boundary: those
+     * formed by the first 4 characters of next with the last characters of
+     * this instance are added, and the partial ones next counted during its
+     * ramp-up are taken back out. This allows a large input to be cut into
+     * chunks that are hashed in parallel and merged in order, giving exactly
+     * the same digest as hashing it sequentially.
+     *
+     * @param next the state of the data that follows the data seen so far
+     * @return this instance for chaining
+     */
+    public Nilsimsa merge(Nilsimsa next) {
+        if (next.tables != tables && !Arrays.equals(next.tables.transitions, tables.transitions)) {
+            throw new IllegalArgumentException("Cannot merge hashes using different transition tables");
+        }
+        if (next.count == 0) {
+            return this;
+        }
+
+        // the last characters seen here followed by the first characters of next, oldest first
+        int tail = (int) Math.min(4, count);
+        int first = (int) Math.min(4, next.count);
+        int[] seq = new int[tail + first];
+        for (int k = 0; k < tail; k++) {
+            seq[k] = window[tail - 1 - k];
+        }
+        System.arraycopy(next.head, 0, seq, tail, first);
+
+        for (int i = 0; i < 256; i++) {
+            acc[i] += next.acc[i];
+        }
+        for (int p = tail; p < seq.length; p++) {
+            int ch = seq[p];
+            tables.update(acc, -1, ch, at(seq, p - 1, tail), at(seq, p - 2, tail), at(seq, p - 3, tail), at(seq, p - 4, tail));
+            tables.update(acc, 1, ch, at(seq, p - 1, 0), at(seq, p - 2, 0), at(seq, p - 3, 0), at(seq, p - 4, 0));
+        }
+
+        if (count < 4) {
+            // everything seen so far is the start of the merged data
+            for (int k = 0; k < 4; k++) {
+                head[k] = k < seq.length ? seq[k] : -1;
+            }
+        }
+        if (next.count >= 4) {
+            System.arraycopy(next.window, 0, window, 0, 4);
+        } else {
+            for (int k = 0; k < 4; k++) {
+                window[k] = at(seq, seq.length - 1 - k, 0);
+            }
+        }
+        count += next.count;
+        return this;
+    }
+
+    /**
+     * Return a compact binary snapshot of the current state, about 1 KB, that
+     * can be stored or sent elsewhere and resumed with {@link #restore(byte[])}.
+     *
+     * @return the snapshot
+     */
+    public byte[] snapshot() {
+        return snapshot(false);
+    }
+
+    /**
+     * Return a compact binary snapshot of the current state that can be
+     * stored or sent elsewhere and resumed with {@link #restore(byte[])}. The
+     * snapshot is big-endian: a magic number "NLSS", a version byte, a flags
+     * byte, the 256 byte transition table unless it is the default one, the
+     * character count as a long, the last and first 4 characters seen, and
+     * the 256 accumulators. When compressed, the accumulators are written as
+     * unsigned varints, which takes one byte for each accumulator below 128
+     * and suits short or sparse inputs.
+     *
+     * @param compress true to write the accumulators as varints
+     * @return the snapshot
+     */
+    public byte[] snapshot(boolean compress) {
+        boolean custom = tables != NilsimsaTables.TRAN53;
+        ByteBuffer out = ByteBuffer.allocate(SNAPSHOT_HEADER_SIZE + (custom ? 256 : 0) + 256 * (compress ? 5 : 4));
+        out.putInt(SNAPSHOT_MAGIC);
+        out.put((byte) SNAPSHOT_VERSION);
+        out.put((byte) ((compress ? SNAPSHOT_VARINT : 0) | (custom ? SNAPSHOT_CUSTOM_TABLE : 0)));
+        if (custom) {
+            for (int t : tables.transitions) {
+                out.put((byte) t);
+            }
+        }
+        out.putLong(count);
+        for (int k = 0; k < 4; k++) {
+            out.put((byte) window[k]);
+        }
+        for (int k = 0; k < 4; k++) {
+            out.put((byte) head[k]);
+        }
+        for (int a : acc) {
+            if (compress) {
+                while ((a & ~0x7F) != 0) {
+                    out.put((byte) ((a & 0x7F) | 0x80));
+                    a >>>= 7;
+                }
+                out.put((byte) a);
+            } else {
+                out.putInt(a);
+            }
+        }
+        return Arrays.copyOf(out.array(), out.position());
+    }
+
+    /**
+     * Return a new instance that resumes hashing from the state captured by
+     * {@link #snapshot(boolean)}. Updating it with the rest of the data gives
+     * the same digest as if all the data had been seen by a single instance.
+     *
+     * @param snapshot a snapshot of a previous instance
+     * @return the restored instance
+     * @throws IllegalArgumentException if the snapshot is malformed
+     */
+    public static Nilsimsa restore(byte[] snapshot) {
+        ByteBuffer in = ByteBuffer.wrap(snapshot);
+        try {
+            if (in.getInt() != SNAPSHOT_MAGIC) {
+                throw new IllegalArgumentException("Not a Nilsimsa snapshot");
+            }
+            int version = in.get();
+            if (version != SNAPSHOT_VERSION) {
+                throw new IllegalArgumentException("Unsupported Nilsimsa snapshot version " + version);
+            }
+            int flags = in.get();
+
+            int[] transitions = TRAN53;
+            if ((flags & SNAPSHOT_CUSTOM_TABLE) != 0) {
+                transitions = new int[256];
+                for (int t = 0; t < 256; t++) {
+                    transitions[t] = in.get() & 0xFF;
+                }
+            }
+            Nilsimsa n = new Nilsimsa(transitions);
+
+            n.count = in.getLong();
+            if (n.count < 0) {
+                throw new IllegalArgumentException("Invalid character count " + n.count);
+            }
+            // characters not seen yet are written as 0xFF but restored as -1
+            for (int k = 0; k < 4; k++) {
+                int ch = in.get() & 0xFF;
+                n.window[k] = k < n.count ? ch : -1;
+            }
+            for (int k = 0; k < 4; k++) {
+                int ch = in.get() & 0xFF;
+                n.head[k] = k < n.count ? ch : -1;
+            }
+            for (int i = 0; i < 256; i++) {
+                int a;
+                if ((flags & SNAPSHOT_VARINT) != 0) {
+                    a = 0;
+                    int shift = 0;
+                    int b;
+                    do {
+                        if (shift > 28) {
+                            throw new IllegalArgumentException("Malformed accumulator varint");
+                        }
+                        b = in.get();
+                        a |= (b & 0x7F) << shift;
+                        shift += 7;
+                    } while ((b & 0x80) != 0);
+                } else {
+                    a = in.getInt();
+                }
+                n.acc[i] = a;
+            }
+            if (in.hasRemaining()) {
+                throw new IllegalArgumentException("Unexpected " + in.remaining() + " bytes after the snapshot");
+            }
+            return n;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated Nilsimsa snapshot", e);
         }
+    }
+
+    /**
+     * Return the character at index i of seq, or -1 when i falls before the
+     * given start.
+     */
+    private static int at(int[] seq, int i, int start) {
+        return i >= start ? seq[i] : -1;
+    }
+
+    /**
+     * Count the next character of the ramp-up over the first 4 characters,
+     * where the window is not yet full.
+     *
+     * @param ch the next character
+     */
+    private void rampUp(int ch) {
+        head[(int) count] = ch;
+        count++;
+
+        tables.update(acc, 1, ch, window[0], window[1], window[2], window[3]);
+
+        // adjust last seen chars by sliding the window over
+        window[3] = window[2];
+        window[2] = window[1];
+        window[1] = window[0];
+        window[0] = ch;
+    }
+
+    /**
+     * Reset this instance to its initial state so that it can be reused to
+     * hash new data without allocating.
+     *
+     * @return this instance for chaining
+     */
+    public Nilsimsa reset() {
+        count = 0;
+        fill(acc, 0);
+        fill(window, -1);
+        fill(head, -1);
         return this;
     }
 
+    /**
+     * Return the number of bytes hashed since this instance was created or
+     * last reset.
+     */
+    long getCount() {
+        return count;
+    }
+
     /**
      * Get digest of data seen thus far as an array of ints.
      */
     public int[] digest() {
+        int[] code = new int[32];
+        digestInto(code, 0);
+        return code;
+    }
+
+    /**
+     * Write the digest of data seen thus far to dest as 32 ints, one byte per
+     * int, the same as {@link #digest()} but without allocating.
+     *
+     * @param dest the target array
+     * @param offset the index in dest for the first byte of the digest
+     */
+    public void digestInto(int[] dest, int offset) {
+        NilsimsaListener listener = NilsimsaMetrics.listener;
+        long start = listener == null ? 0 : System.nanoTime();
+
+        // threshold for accumulator (mean of the accumulator), used to compute the hash
+        long threshold = threshold(count);
+        for (int i = 0; i < 32; i++) {
+            dest[offset + i] = digestByte(i, threshold);
+        }
+        if (listener != null) {
+            listener.digested(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Write the digest of data seen thus far to dest as 32 bytes, in the same
+     * order as {@link #digest()}.
+     *
+     * @param dest the target array
+     * @param offset the index in dest for the first byte of the digest
+     */
+    public void digestInto(byte[] dest, int offset) {
+        NilsimsaListener listener = NilsimsaMetrics.listener;
+        long start = listener == null ? 0 : System.nanoTime();
+        long threshold = threshold(count);
+        for (int i = 0; i < 32; i++) {
+            dest[offset + i] = (byte) digestByte(i, threshold);
+        }
+        if (listener != null) {
+            listener.digested(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Write the digest of data seen thus far to dest as 4 longs, in the
+     * layout of {@link NilsimsaDigest#writeTo(long[], int)}.
+     *
+     * @param dest the target array
+     * @param offset the index in dest for the first word of the digest
+     */
+    public void digestInto(long[] dest, int offset) {
+        NilsimsaListener listener = NilsimsaMetrics.listener;
+        long start = listener == null ? 0 : System.nanoTime();
+        NilsimsaDigest.accumulate(acc, threshold(count), dest, offset);
+        if (listener != null) {
+            listener.digested(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Return byte i of the digest, where the accumulators are in reverse
+     * order so that byte 0 holds the bits of the last 8 accumulators.
+     *
+     * @param i the byte of the digest, between 0 - 31
+     * @param threshold the mean value of the accumulators
+     */
+    private int digestByte(int i, long threshold) {
+        int base = (31 - i) << 3;
+        int code = 0;
+        for (int bit = 0; bit < 8; bit++) {
+            if (acc[base + bit] > threshold) {
+                // if over threshold
+                code |= 1 << bit;
+            }
+        }
+        return code;
+    }
+
+    /**
+     * Get digest of data seen thus far as a compact {@link NilsimsaDigest}.
+     */
+    public NilsimsaDigest toDigest() {
+        NilsimsaListener listener = NilsimsaMetrics.listener;
+        if (listener == null) {
+            return NilsimsaDigest.fromAccumulator(acc, threshold(count));
+        }
+        long start = System.nanoTime();
+        NilsimsaDigest digest = NilsimsaDigest.fromAccumulator(acc, threshold(count));
+        listener.digested(System.nanoTime() - start);
+        return digest;
+    }
+
+    /**
+     * Return the mean value of the accumulators after the given number of
+     * characters have been seen. An accumulator over this threshold sets its
+     * bit in the digest.
+     *
+     * @param count number of characters seen
+     */
+    static long threshold(long count) {
         // number of trigrams seen
         long total = 0;
 
@@ -188,49 +963,58 @@ public class Nilsimsa {
             // otherwise 8 triplets/char less, 28 'missed' during 'ramp-up'
             total = 8 * count - 28;
         }
-
-        // threshold for accumulator (mean of the accumulator), used to compute the hash
-        long threshold = total / 256;
-
-        // start with all zero bits
-        int[] code = new int[32];
-        for (int i = 0; i < 256; i++) {
-            if (acc[i] > threshold) {
-                // if over threshold
-                code[i >> 3] += 1 << (i & 7);
-            }
-        }
-
-        unsafeReverse(code);
-        return code;
+        return total / 256;
     }
 
     /**
      * Return the 256-bit digest as 64 hex characters.
      */
     public String toHexDigest() {
-        StringBuilder b = new StringBuilder();
-        for (int d : digest()) {
-            if (d < 16) {
-                b.append("0");
-            }
-            b.append(Integer.toHexString(d));
+        char[] hex = new char[64];
+        toHexDigest(hex, 0);
+        return new String(hex);
+    }
+
+    /**
+     * Write the 256-bit digest as 64 lowercase hex characters to dest without
+     * allocating.
+     *
+     * @param dest the target array
+     * @param offset the index in dest for the first character
+     */
+    public void toHexDigest(char[] dest, int offset) {
+        NilsimsaListener listener = NilsimsaMetrics.listener;
+        long start = listener == null ? 0 : System.nanoTime();
+        long threshold = threshold(count);
+        for (int i = 0; i < 32; i++) {
+            int d = digestByte(i, threshold);
+            dest[offset + (i << 1)] = NilsimsaCodec.HEX[d >> 4];
+            dest[offset + (i << 1) + 1] = NilsimsaCodec.HEX[d & 15];
+        }
+        if (listener != null) {
+            listener.digested(System.nanoTime() - start);
         }
-        return b.toString();
     }
 
     /**
-     * Return the accumulator index for the given chars a, b, and c when
-     * computing for a specific trigram index. This is the primary hashing
-     * function used to direct updates to the accumulator array.
+     * Append the 256-bit digest as 64 lowercase hex characters to the given
+     * builder without allocating, as long as it has room for them.
      *
-     * @param a first char
-     * @param b second char
-     * @param c third char
-     * @param n trigram index, between 0 - 7
+     * @param dest the target builder
+     * @return the given builder for chaining
      */
-    private int tran3(int a, int b, int c, int n) {
-        return (((transitions[(a + n) & 255] ^ transitions[b] * (n + n + 1)) + transitions[c ^ transitions[n]]) & 255);
+    public StringBuilder appendHexDigest(StringBuilder dest) {
+        NilsimsaListener listener = NilsimsaMetrics.listener;
+        long start = listener == null ? 0 : System.nanoTime();
+        long threshold = threshold(count);
+        for (int i = 0; i < 32; i++) {
+            int d = digestByte(i, threshold);
+            dest.append(NilsimsaCodec.HEX[d >> 4]).append(NilsimsaCodec.HEX[d & 15]);
+        }
+        if (listener != null) {
+            listener.digested(System.nanoTime() - start);
+        }
+        return dest;
     }
 
     /**
@@ -254,7 +1038,10 @@ public class Nilsimsa {
 
     /**
      * Compute the difference in bits between digest1 and digest2. Returns -127
-     * to 128; 128 is the same, -127 is different.
+     * to 128; 128 is the same, -127 is different. Like
+     * {@link #unsafeToHex(String)}, the digests are not validated; use
+     * {@link NilsimsaCodec#compareHex(CharSequence, CharSequence)} to reject
+     * anything but 64 hex characters.
      *
      * @param digest1 first digest to compare
      * @param digest2 second digest to compare
@@ -275,12 +1062,19 @@ public class Nilsimsa {
         int len = s.length();
         int[] data = new int[len / 2];
         for (int i = 0; i < len; i += 2) {
-            data[i / 2] = ((Character.digit(s.charAt(i), 16) << 4)
-                    + Character.digit(s.charAt(i + 1), 16));
+            data[i / 2] = (digit(s.charAt(i)) << 4) + digit(s.charAt(i + 1));
         }
         return data;
     }
 
+    /**
+     * Return the same value as {@link Character#digit(char, int)} in base 16,
+     * with a table lookup for ASCII characters.
+     */
+    private static int digit(char c) {
+        return c < 128 ? NilsimsaCodec.HEX_VALUES[c] : Character.digit(c, 16);
+    }
+
     /**
      * Compute the difference in bits between digest1 and digest2. Returns -127
      * to 128; 128 is the same, -127 is different.
@@ -295,9 +1089,25 @@ public class Nilsimsa {
             // computes the bit diff between the i'th position of the digests
             bits += POPC[255 & (digest1[i] ^ digest2[i])];
         }
+        NilsimsaListener listener = NilsimsaMetrics.listener;
+        if (listener != null) {
+            listener.compared(1, 0);
+        }
         return 128 - bits;
     }
 
+    /**
+     * Return a stable 32-bit id for the given transition table, useful for
+     * tagging stored digests with the table they were computed from. Digests
+     * computed from different tables should never be compared. The id is the
+     * value of {@link java.util.Arrays#hashCode(int[])} for the table.
+     *
+     * @param transitions a transition table of 256 ints
+     */
+    public static int transitionsId(int[] transitions) {
+        return NilsimsaTables.forTransitions(transitions).id;
+    }
+
     /**
      * Generate a Nilsimsa transition table such that when the entire table is
      * XOR'd together, the end result will be 0. The default is generated from a
@@ -0,0 +1,345 @@
+/*
+ * Copyright 2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.nilsimsa;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class hashes many documents in parallel. The input is cut into
+ * batches of a fixed number of documents and each batch is hashed as a
+ * single task on an executor, so the cost of scheduling is paid once per
+ * batch instead of once per document. Each worker thread keeps and resets
+ * its own {@link Nilsimsa}, so hashing a document does not allocate any
+ * hashing state. Digests are returned in input order.
+ * <p>
+ * Workers share no mutable state with each other. A batch should hold
+ * enough bytes, at least several hundred KB, that the per-task overhead
+ * disappears; with small documents raise the batch size.
+ * <p>
+ * A single large document can also be spread over the workers with the
+ * hashSplit methods, which hash chunks of it in parallel and merge them.
+ */
+public class NilsimsaBatchHasher implements Closeable {
+
+    private final int[] transitions;
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+    private final int batchSize;
+    private final NilsimsaPool pool;
+
+    /**
+     * Create a hasher for the default "53"-based transition table with one
+     * thread per available processor and batches of 256 documents.
+     */
+    public NilsimsaBatchHasher() {
+        this(Nilsimsa.TRAN53, Runtime.getRuntime().availableProcessors(), 256);
+    }
+
+    /**
+     * Create a hasher with its own fixed pool of daemon threads, shut down by
+     * {@link #close()}.
+     *
+     * @param transitions the transition table to hash with
+     * @param parallelism the number of threads to hash with
+     * @param batchSize the number of documents hashed per task
+     */
+    public NilsimsaBatchHasher(int[] transitions, int parallelism, int batchSize) {
+        this(transitions, Executors.newFixedThreadPool(checkPositive("Parallelism", parallelism), new DaemonThreadFactory()), batchSize, true);
+    }
+
+    /**
+     * Create a hasher that runs on the given executor, which is left running
+     * by {@link #close()}.
+     *
+     * @param transitions the transition table to hash with
+     * @param executor the executor to submit batches to
+     * @param batchSize the number of documents hashed per task
+     */
+    public NilsimsaBatchHasher(int[] transitions, ExecutorService executor, int batchSize) {
+        this(transitions, executor, batchSize, false);
+    }
+
+    private NilsimsaBatchHasher(int[] transitions, ExecutorService executor, int batchSize, boolean ownsExecutor) {
+        this.transitions = NilsimsaTables.forTransitions(transitions).transitions;
+        this.pool = new NilsimsaPool(this.transitions);
+        this.executor = executor;
+        this.batchSize = checkPositive("Batch size", batchSize);
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    /**
+     * Hash each of the given byte arrays.
+     *
+     * @param documents the documents to hash
+     * @return the digest of each document, in input order
+     * @throws InterruptedException if interrupted while waiting for the digests
+     */
+    public List<NilsimsaDigest> hash(Iterable<byte[]> documents) throws InterruptedException {
+        return hashAll(documents.iterator());
+    }
+
+    /**
+     * Hash the remaining bytes of each of the given buffers. The position of
+     * each buffer is left unchanged.
+     *
+     * @param documents the documents to hash
+     * @return the digest of each document, in input order
+     * @throws InterruptedException if interrupted while waiting for the digests
+     */
+    public List<NilsimsaDigest> hashBuffers(Iterable<ByteBuffer> documents) throws InterruptedException {
+        return hashAll(documents.iterator());
+    }
+
+    /**
+     * Hash a single large buffer by cutting its remaining bytes into chunks
+     * that are hashed in parallel and merged in order with
+     * {@link Nilsimsa#merge(Nilsimsa)}. The digest is the same as hashing the
+     * whole buffer sequentially. The position of the buffer is left
+     * unchanged.
+     *
+     * @param data the document to hash
+     * @param chunkSize the number of bytes hashed per task
+     * @return the digest of the document
+     * @throws InterruptedException if interrupted while waiting for the digest
+     */
+    public NilsimsaDigest hashSplit(ByteBuffer data, int chunkSize) throws InterruptedException {
+        checkPositive("Chunk size", chunkSize);
+        List<Callable<Nilsimsa>> chunks = new ArrayList<Callable<Nilsimsa>>();
+        for (int start = data.position(); start < data.limit(); start += chunkSize) {
+            ByteBuffer chunk = data.duplicate();
+            chunk.position(start);
+            chunk.limit((int) Math.min((long) start + chunkSize, data.limit()));
+            chunks.add(new BufferChunk(chunk));
+        }
+        return mergeAll(chunks);
+    }
+
+    /**
+     * Hash a single large file by cutting it into chunks that are
+     * memory-mapped and hashed in parallel, then merged in order with
+     * {@link Nilsimsa#merge(Nilsimsa)}. The digest is the same as hashing the
+     * whole file sequentially.
+     *
+     * @param file the document to hash
+     * @param chunkSize the number of bytes hashed per task
+     * @return the digest of the document
+     * @throws IOException if reading from the file fails
+     * @throws InterruptedException if interrupted while waiting for the digest
+     */
+    public NilsimsaDigest hashSplit(File file, int chunkSize) throws IOException, InterruptedException {
+        checkPositive("Chunk size", chunkSize);
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = in.getChannel();
+            List<Callable<Nilsimsa>> chunks = new ArrayList<Callable<Nilsimsa>>();
+            long size = channel.size();
+            for (long start = 0; start < size; start += chunkSize) {
+                chunks.add(new FileChunk(channel, start, Math.min(chunkSize, size - start)));
+            }
+            return mergeAll(chunks);
+        } catch (IllegalStateException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        } finally {
+            in.close();
+        }
+    }
+
+    private NilsimsaDigest mergeAll(List<Callable<Nilsimsa>> chunks) throws InterruptedException {
+        List<Future<Nilsimsa>> futures = new ArrayList<Future<Nilsimsa>>();
+        try {
+            for (Callable<Nilsimsa> chunk : chunks) {
+                futures.add(executor.submit(chunk));
+            }
+            Nilsimsa merged = new Nilsimsa(transitions);
+            for (Future<Nilsimsa> future : futures) {
+                merged.merge(future.get());
+            }
+            return merged.toDigest();
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        } finally {
+            for (Future<Nilsimsa> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private List<NilsimsaDigest> hashAll(Iterator<?> documents) throws InterruptedException {
+        List<Future<NilsimsaDigest[]>> futures = new ArrayList<Future<NilsimsaDigest[]>>();
+        try {
+            while (documents.hasNext()) {
+                Object[] batch = new Object[batchSize];
+                int size = 0;
+                while (size < batchSize && documents.hasNext()) {
+                    batch[size++] = documents.next();
+                }
+                futures.add(executor.submit(new Batch(batch, size)));
+            }
+
+            List<NilsimsaDigest> digests = new ArrayList<NilsimsaDigest>(futures.size() * batchSize);
+            for (Future<NilsimsaDigest[]> future : futures) {
+                digests.addAll(Arrays.asList(future.get()));
+            }
+            return digests;
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        } finally {
+            // a no-op for batches already done, stops the rest on failure
+            for (Future<NilsimsaDigest[]> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Shut down the thread pool if it was created by this hasher.
+     */
+    @Override
+    public void close() {
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Return the unchecked cause of a failed task to rethrow, wrapping a
+     * checked cause in an IllegalStateException.
+     */
+    private static RuntimeException unwrap(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new IllegalStateException(cause);
+    }
+
+    private static int checkPositive(String name, int value) {
+        if (value < 1) {
+            throw new IllegalArgumentException(name + " must be positive, found " + value);
+        }
+        return value;
+    }
+
+    /**
+     * This class hashes one batch of documents on a worker thread.
+     */
+    private final class Batch implements Callable<NilsimsaDigest[]> {
+
+        private final Object[] documents;
+        private final int size;
+
+        Batch(Object[] documents, int size) {
+            this.documents = documents;
+            this.size = size;
+        }
+
+        @Override
+        public NilsimsaDigest[] call() {
+            NilsimsaDigest[] digests = new NilsimsaDigest[size];
+            for (int i = 0; i < size; i++) {
+                Nilsimsa nilsimsa = pool.get();
+                if (documents[i] instanceof byte[]) {
+                    nilsimsa.update((byte[]) documents[i]);
+                } else {
+                    // a duplicate leaves the position of the caller's buffer alone
+                    nilsimsa.update(((ByteBuffer) documents[i]).duplicate());
+                }
+                digests[i] = nilsimsa.toDigest();
+            }
+            return digests;
+        }
+    }
+
+    /**
+     * This class hashes one chunk of a large buffer into a state to merge.
+     */
+    private final class BufferChunk implements Callable<Nilsimsa> {
+
+        private final ByteBuffer chunk;
+
+        BufferChunk(ByteBuffer chunk) {
+            this.chunk = chunk;
+        }
+
+        @Override
+        public Nilsimsa call() {
+            return new Nilsimsa(transitions).update(chunk);
+        }
+    }
+
+    /**
+     * This class maps and hashes one chunk of a large file into a state to
+     * merge.
+     */
+    private final class FileChunk implements Callable<Nilsimsa> {
+
+        private final FileChannel channel;
+        private final long position;
+        private final long size;
+
+        FileChunk(FileChannel channel, long position, long size) {
+            this.channel = channel;
+            this.position = position;
+            this.size = size;
+        }
+
+        @Override
+        public Nilsimsa call() throws IOException {
+            return new Nilsimsa(transitions).update(channel.map(FileChannel.MapMode.READ_ONLY, position, size));
+        }
+    }
+
+    /**
+     * This class creates the daemon threads of a hasher's own thread pool.
+     */
+    private static final class DaemonThreadFactory implements ThreadFactory {
+
+        private static final AtomicInteger POOLS = new AtomicInteger();
+
+        private final int pool = POOLS.incrementAndGet();
+        private final AtomicInteger threads = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "nilsimsa-hasher-" + pool + "-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
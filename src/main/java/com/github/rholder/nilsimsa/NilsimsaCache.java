@@ -0,0 +1,394 @@
+/*
+ * Copyright 2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.nilsimsa;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * This class caches digests by the content they were computed from, so that
+ * hashing the same bytes again costs a fingerprint of the input instead of a
+ * full {@link Nilsimsa#update(byte[])}. Entries are keyed on a 128-bit
+ * MurmurHash3 fingerprint of the input and the id of the transition table,
+ * and hold the compact {@link NilsimsaDigest}, about 100 bytes per entry in
+ * all.
+ * <p>
+ * The cache holds at most a fixed number of entries, spread over segments
+ * that each evict their least recently used entry when full. Each segment
+ * has its own lock, held only to look up or store an entry, never while
+ * hashing, so threads hashing different inputs rarely wait on each other.
+ * Two threads that miss on the same input at once both hash it.
+ * <p>
+ * A fingerprint is not a cryptographic hash. Inputs crafted to collide could
+ * be given each other's digests, so do not share a cache between callers
+ * that do not trust each other.
+ */
+public class NilsimsaCache {
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private final Segment[] segments;
+    private final int segmentMask;
+    private final NilsimsaPool pool = new NilsimsaPool();
+
+    // pools for other transition tables by table id, created on first use
+    private final ConcurrentMap<Integer, NilsimsaPool> customPools = new ConcurrentHashMap<Integer, NilsimsaPool>();
+
+    /**
+     * Create a cache of at most the given number of entries, over 16
+     * segments.
+     *
+     * @param maxEntries the most digests to keep
+     */
+    public NilsimsaCache(int maxEntries) {
+        this(maxEntries, 16);
+    }
+
+    /**
+     * Create a cache of at most the given number of entries, over the given
+     * number of segments. Each segment holds an equal share of the entries.
+     *
+     * @param maxEntries the most digests to keep
+     * @param segments the number of independently locked segments, a power of 2
+     */
+    public NilsimsaCache(int maxEntries, int segments) {
+        if (segments < 1 || Integer.bitCount(segments) != 1) {
+            throw new IllegalArgumentException("Segments must be a positive power of 2, found " + segments);
+        }
+        if (maxEntries < segments) {
+            throw new IllegalArgumentException("Max entries must be at least the number of segments, found " + maxEntries);
+        }
+        this.segments = new Segment[segments];
+        this.segmentMask = segments - 1;
+        for (int s = 0; s < segments; s++) {
+            this.segments[s] = new Segment(maxEntries / segments + (s < maxEntries % segments ? 1 : 0));
+        }
+    }
+
+    /**
+     * Return the digest of the given bytes with the default "53"-based
+     * transition table, hashing them only if they are not cached.
+     *
+     * @param data input for the hash
+     */
+    public NilsimsaDigest get(byte[] data) {
+        return get(data, 0, data.length);
+    }
+
+    /**
+     * Return the digest of the given range of bytes with the default
+     * "53"-based transition table, hashing them only if they are not cached.
+     *
+     * @param data input for the hash
+     * @param offset index of the first byte to hash
+     * @param length number of bytes to hash
+     */
+    public NilsimsaDigest get(byte[] data, int offset, int length) {
+        checkRange(data, offset, length);
+        Key key = new Key(NilsimsaTables.TRAN53.id, data, offset, length);
+        NilsimsaDigest digest = segment(key).lookup(key);
+        if (digest == null) {
+            digest = pool.get().update(data, offset, length).toDigest();
+            segment(key).store(key, digest);
+        }
+        return digest;
+    }
+
+    /**
+     * Return the digest of the given range of bytes with the given
+     * transition table, hashing them only if they are not cached.
+     *
+     * @param transitions the transition table to hash with
+     * @param data input for the hash
+     * @param offset index of the first byte to hash
+     * @param length number of bytes to hash
+     */
+    public NilsimsaDigest get(int[] transitions, byte[] data, int offset, int length) {
+        checkRange(data, offset, length);
+        NilsimsaTables tables = NilsimsaTables.forTransitions(transitions);
+        if (tables == NilsimsaTables.TRAN53) {
+            return get(data, offset, length);
+        }
+        Key key = new Key(tables.id, data, offset, length);
+        NilsimsaDigest digest = segment(key).lookup(key);
+        if (digest == null) {
+            digest = pool(tables).get().update(data, offset, length).toDigest();
+            segment(key).store(key, digest);
+        }
+        return digest;
+    }
+
+    /**
+     * Return the number of digests currently cached.
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.entries.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Return the number of lookups that found a cached digest.
+     */
+    public long getHits() {
+        long hits = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                hits += segment.hits;
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * Return the number of lookups that had to hash their input.
+     */
+    public long getMisses() {
+        long misses = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                misses += segment.misses;
+            }
+        }
+        return misses;
+    }
+
+    /**
+     * Return the number of digests evicted to make room for others.
+     */
+    public long getEvictions() {
+        long evictions = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                evictions += segment.evictions;
+            }
+        }
+        return evictions;
+    }
+
+    /**
+     * Return the fraction of lookups that found a cached digest, or 0 when
+     * there have been none.
+     */
+    public double getHitRate() {
+        long hits = getHits();
+        long lookups = hits + getMisses();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    /**
+     * Remove all cached digests and reset the statistics.
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.entries.clear();
+                segment.hits = 0;
+                segment.misses = 0;
+                segment.evictions = 0;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "NilsimsaCache{size=" + size() + ", hits=" + getHits() + ", misses=" + getMisses()
+                + ", evictions=" + getEvictions() + '}';
+    }
+
+    /**
+     * Return the pool for the given custom table. Table ids are hashes, so a
+     * pool found under the same id is only used if its table is equal.
+     */
+    private NilsimsaPool pool(NilsimsaTables tables) {
+        NilsimsaPool custom = customPools.get(tables.id);
+        if (custom == null || !Arrays.equals(custom.transitions, tables.transitions)) {
+            custom = new NilsimsaPool(tables.transitions);
+            NilsimsaPool existing = customPools.putIfAbsent(tables.id, custom);
+            if (existing != null && Arrays.equals(existing.transitions, tables.transitions)) {
+                custom = existing;
+            }
+        }
+        return custom;
+    }
+
+    private Segment segment(Key key) {
+        return segments[(int) (key.high >>> 32) & segmentMask];
+    }
+
+    private static void checkRange(byte[] data, int offset, int length) {
+        if (offset < 0 || length < 0 || offset > data.length - length) {
+            throw new IndexOutOfBoundsException("Range [" + offset + ", " + offset + " + " + length
+                    + ") out of bounds for length " + data.length);
+        }
+    }
+
+    /**
+     * Compute the 128-bit MurmurHash3 (x64 variant, seed 0) of the given
+     * range, returning the two halves in order.
+     */
+    static long[] murmur3(byte[] data, int offset, int length) {
+        long h1 = 0;
+        long h2 = 0;
+        int end = offset + (length & ~15);
+        for (int i = offset; i < end; i += 16) {
+            long k1 = littleEndian(data, i, 8);
+            long k2 = littleEndian(data, i + 8, 8);
+
+            h1 ^= mixK1(k1);
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            h2 ^= mixK2(k2);
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        int tail = length & 15;
+        if (tail > 8) {
+            h2 ^= mixK2(littleEndian(data, end + 8, tail - 8));
+        }
+        if (tail > 0) {
+            h1 ^= mixK1(littleEndian(data, end, Math.min(tail, 8)));
+        }
+
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        h1 += h2;
+        h2 += h1;
+        return new long[]{h1, h2};
+    }
+
+    /**
+     * Return up to 8 bytes starting at the given index as a little-endian
+     * long.
+     */
+    private static long littleEndian(byte[] data, int index, int bytes) {
+        long value = 0;
+        for (int i = bytes - 1; i >= 0; i--) {
+            value = (value << 8) | (data[index + i] & 0xFF);
+        }
+        return value;
+    }
+
+    private static long mixK1(long k1) {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        return k1 * C2;
+    }
+
+    private static long mixK2(long k2) {
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        return k2 * C1;
+    }
+
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    /**
+     * This class is the key of a cached digest: the fingerprint of the input
+     * and the id of the transition table it was hashed with.
+     */
+    private static final class Key {
+
+        final long high;
+        final long low;
+        final int table;
+
+        Key(int table, byte[] data, int offset, int length) {
+            long[] fingerprint = murmur3(data, offset, length);
+            this.high = fingerprint[0];
+            this.low = fingerprint[1];
+            this.table = table;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return high == other.high && low == other.low && table == other.table;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) high ^ table;
+        }
+    }
+
+    /**
+     * This class is one segment of the cache, an access-ordered map that
+     * drops its least recently used entry when it grows past its capacity.
+     * All access is synchronized on the segment.
+     */
+    private static final class Segment {
+
+        // in access order, so the first entry is the least recently used
+        final LinkedHashMap<Key, NilsimsaDigest> entries = new LinkedHashMap<Key, NilsimsaDigest>(16, 0.75f, true);
+
+        private final int capacity;
+        long hits;
+        long misses;
+        long evictions;
+
+        Segment(int capacity) {
+            this.capacity = capacity;
+        }
+
+        synchronized NilsimsaDigest lookup(Key key) {
+            NilsimsaDigest digest = entries.get(key);
+            if (digest == null) {
+                misses++;
+            } else {
+                hits++;
+            }
+            return digest;
+        }
+
+        synchronized void store(Key key, NilsimsaDigest digest) {
+            entries.put(key, digest);
+            if (entries.size() > capacity) {
+                Iterator<Key> eldest = entries.keySet().iterator();
+                eldest.next();
+                eldest.remove();
+                evictions++;
+            }
+        }
+    }
+}
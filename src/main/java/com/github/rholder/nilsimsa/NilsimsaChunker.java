@@ -0,0 +1,203 @@
+/*
+ * Copyright 2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.nilsimsa;
+
+import java.util.Arrays;
+
+/**
+ * This class splits its input into chunks at content-defined boundaries and
+ * computes the Nilsimsa digest of each chunk as the bytes go by, producing a
+ * {@link NilsimsaSignature}. A boundary falls where a gear hash of the last
+ * 64 bytes has its top bits clear, so inserting or removing bytes only moves
+ * the boundaries near the edit, and a payload embedded in a larger document
+ * is cut into mostly the same chunks as the payload on its own:
+ * <pre>
+ * NilsimsaChunker chunker = new NilsimsaChunker();
+ * NilsimsaSignature message = chunker.update(data).toSignature();
+ * double contained = payload.containment(message, 100);
+ * </pre>
+ * No boundary is placed before the minimum chunk size, and one is forced at
+ * the maximum. Past the minimum, a boundary follows each byte with a
+ * probability of 1 / target size, so chunks average about the minimum plus
+ * the target size. The gear hash is not computed over the start of each
+ * chunk where no boundary can fall.
+ * <p>
+ * Instances are not thread-safe.
+ */
+public class NilsimsaChunker {
+
+    // bytes of input that the gear hash depends on
+    private static final int GEAR_WINDOW = 64;
+
+    // a fixed pseudo-random word per byte value, so that boundaries are the same everywhere
+    private static final long[] GEAR = new long[256];
+
+    static {
+        long x = 0x4E4C5343L;
+        for (int i = 0; i < GEAR.length; i++) {
+            // SplitMix64
+            long z = (x += 0x9E3779B97F4A7C15L);
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            GEAR[i] = z ^ (z >>> 31);
+        }
+    }
+
+    private final Nilsimsa nilsimsa;
+    private final int minSize;
+    private final int maxSize;
+    private final long mask;
+
+    // digests of the chunks so far, packed 4 words each, and their lengths
+    private long[] digests = new long[64];
+    private int[] lengths = new int[16];
+    private int chunks;
+
+    // state of the current chunk
+    private long gear;
+    private int chunkLength;
+
+    /**
+     * Create a chunker using the default "53"-based transition table, with
+     * chunks of 256 - 8192 bytes that average about 1.25 KB.
+     */
+    public NilsimsaChunker() {
+        this(Nilsimsa.TRAN53, 256, 1024, 8192);
+    }
+
+    /**
+     * Create a chunker using the given transition table and chunk sizes.
+     *
+     * @param transitions the transition table to hash with
+     * @param minSize the smallest chunk, except for the last one
+     * @param targetSize the average distance to a boundary past the minimum, a power of 2
+     * @param maxSize the largest chunk
+     */
+    public NilsimsaChunker(int[] transitions, int minSize, int targetSize, int maxSize) {
+        if (minSize < 1) {
+            throw new IllegalArgumentException("Minimum size must be positive, found " + minSize);
+        }
+        if (targetSize < 2 || Integer.bitCount(targetSize) != 1) {
+            throw new IllegalArgumentException("Target size must be a power of 2 of at least 2, found " + targetSize);
+        }
+        if (maxSize < minSize) {
+            throw new IllegalArgumentException("Maximum size must be at least the minimum size " + minSize
+                    + ", found " + maxSize);
+        }
+        this.nilsimsa = new Nilsimsa(transitions);
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.mask = -1L << (64 - Integer.numberOfTrailingZeros(targetSize));
+    }
+
+    /**
+     * Split and hash the given bytes.
+     *
+     * @param data input for the signature
+     * @return this instance for chaining
+     */
+    public NilsimsaChunker update(byte[] data) {
+        return update(data, 0, data.length);
+    }
+
+    /**
+     * Split and hash the given range of bytes. Input may be given in pieces
+     * of any size; the chunks are the same as for the whole input at once.
+     *
+     * @param data input for the signature
+     * @param offset index of the first byte
+     * @param length number of bytes
+     * @return this instance for chaining
+     */
+    public NilsimsaChunker update(byte[] data, int offset, int length) {
+        if (offset < 0 || length < 0 || offset > data.length - length) {
+            throw new IndexOutOfBoundsException("Range [" + offset + ", " + offset + " + " + length
+                    + ") out of bounds for length " + data.length);
+        }
+        final long[] gearTable = GEAR;
+        final int end = offset + length;
+        final int skipTo = Math.max(minSize - GEAR_WINDOW, 0);
+        long h = gear;
+        int n = chunkLength;
+
+        // start of the bytes of the current chunk not hashed yet
+        int start = offset;
+        int i = offset;
+        while (i < end) {
+            if (n < skipTo) {
+                // the gear hash forgets these bytes before a boundary can be tested
+                int skip = Math.min(skipTo - n, end - i);
+                i += skip;
+                n += skip;
+                continue;
+            }
+            h = (h << 1) + gearTable[data[i++] & 0xFF];
+            n++;
+            if (((h & mask) == 0 && n >= minSize) || n == maxSize) {
+                nilsimsa.update(data, start, i - start);
+                finishChunk(n);
+                start = i;
+                h = 0;
+                n = 0;
+            }
+        }
+        if (start < end) {
+            nilsimsa.update(data, start, end - start);
+        }
+        gear = h;
+        chunkLength = n;
+        return this;
+    }
+
+    /**
+     * Return the signature of everything seen since this chunker was created
+     * or last reset, ending the last chunk wherever the input ended. The
+     * chunker is then reset, ready for new input.
+     */
+    public NilsimsaSignature toSignature() {
+        if (chunkLength > 0) {
+            finishChunk(chunkLength);
+        }
+        NilsimsaSignature signature = new NilsimsaSignature(Arrays.copyOf(digests, chunks << 2),
+                Arrays.copyOf(lengths, chunks));
+        reset();
+        return signature;
+    }
+
+    /**
+     * Discard all input seen so far.
+     *
+     * @return this instance for chaining
+     */
+    public NilsimsaChunker reset() {
+        nilsimsa.reset();
+        chunks = 0;
+        gear = 0;
+        chunkLength = 0;
+        return this;
+    }
+
+    private void finishChunk(int length) {
+        if (chunks == lengths.length) {
+            lengths = Arrays.copyOf(lengths, chunks << 1);
+            digests = Arrays.copyOf(digests, chunks << 3);
+        }
+        nilsimsa.digestInto(digests, chunks << 2);
+        nilsimsa.reset();
+        lengths[chunks++] = length;
+    }
+}
@@ -0,0 +1,498 @@
+/*
+ * Copyright 2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.nilsimsa;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class is the command line entry point of the jar, for hashing
+ * directory trees and searching them against a reference set:
+ * <pre>
+ * java -jar nilsimsa.jar hash [-t threads] [-o output] [-b] path...
+ * java -jar nilsimsa.jar search -r reference [-s threshold] [-t threads] path...
+ * </pre>
+ * Hash mode writes one line per file, the hex digest, two spaces and the
+ * path, in the order the files finish hashing. With -b and -o it instead
+ * writes a binary {@link NilsimsaStore} to the output file, and the paths in
+ * the same order, one per line, to the output file name plus ".paths".
+ * <p>
+ * Search mode loads a reference set written by hash mode in either form and
+ * prints a line of input path, reference path and score for each reference
+ * that an input file matches with at least the threshold score.
+ * <p>
+ * Directories are walked on the main thread, which hands files to a fixed
+ * pool of workers through a bounded queue and hashes a file itself when the
+ * queue is full, so a huge tree never piles up in memory. Files up to 1 MB
+ * are read into a buffer per worker; larger files are memory-mapped a
+ * segment at a time. Throughput is reported on standard error at the end.
+ * The exit status is 0 on success, 1 if any file could not be read, and 2
+ * for invalid arguments.
+ */
+public final class NilsimsaCli {
+
+    private static final String USAGE = "usage: java -jar nilsimsa.jar hash [-t threads] [-o output] [-b] path...\n"
+            + "       java -jar nilsimsa.jar search -r reference [-s threshold] [-t threads] path...";
+
+    // files larger than this are memory-mapped instead of read into a buffer
+    private static final int READ_LIMIT = 1024 * 1024;
+
+    private static final String PATHS_SUFFIX = ".paths";
+
+    private final PrintStream err;
+    private final NilsimsaPool pool = new NilsimsaPool();
+    private final ThreadLocal<byte[]> buffers = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[READ_LIMIT];
+        }
+    };
+
+    private final AtomicLong files = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicInteger failures = new AtomicInteger();
+
+    private NilsimsaCli(PrintStream err) {
+        this.err = err;
+    }
+
+    public static void main(String[] args) {
+        System.exit(run(args, System.out, System.err));
+    }
+
+    /**
+     * Run the tool with the given arguments and return its exit status.
+     */
+    static int run(String[] args, PrintStream out, PrintStream err) {
+        Options options;
+        try {
+            options = new Options(args);
+        } catch (IllegalArgumentException e) {
+            err.println("nilsimsa: " + e.getMessage());
+            err.println(USAGE);
+            return 2;
+        }
+
+        NilsimsaCli cli = new NilsimsaCli(err);
+        Sink sink = null;
+        try {
+            if (options.search) {
+                sink = new SearchSink(out, loadReference(options.reference), options.threshold);
+            } else if (options.binary) {
+                sink = new BinarySink(options.output);
+            } else if (options.output == null) {
+                sink = new TextSink(out, false);
+            } else {
+                sink = new TextSink(new FileOutputStream(options.output), true);
+            }
+            cli.hashAll(options, sink);
+        } catch (IOException e) {
+            err.println("nilsimsa: " + e.getMessage());
+            return 1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            err.println("nilsimsa: interrupted");
+            return 1;
+        } finally {
+            if (sink != null) {
+                try {
+                    sink.close();
+                } catch (IOException e) {
+                    err.println("nilsimsa: " + e.getMessage());
+                    cli.failures.incrementAndGet();
+                }
+            }
+        }
+        return cli.failures.get() == 0 ? 0 : 1;
+    }
+
+    private void hashAll(Options options, Sink sink) throws InterruptedException {
+        long start = System.nanoTime();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(options.threads, options.threads, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(options.threads * 4), new ThreadPoolExecutor.CallerRunsPolicy());
+        try {
+            Set<String> visited = new HashSet<String>();
+            for (String path : options.paths) {
+                walk(new File(path), executor, sink, visited);
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+
+        double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+        double megabytes = bytes.get() / (1024.0 * 1024.0);
+        err.println(String.format("hashed %d files, %.1f MB in %.2f s: %.1f files/s, %.1f MB/s%s",
+                files.get(), megabytes, seconds, files.get() / seconds, megabytes / seconds,
+                failures.get() == 0 ? "" : ", " + failures.get() + " failed"));
+    }
+
+    /**
+     * Hash the given file, or every file under the given directory, visiting
+     * each directory only once even when links lead back to it.
+     */
+    private void walk(final File file, ThreadPoolExecutor executor, final Sink sink, Set<String> visited) {
+        if (file.isDirectory()) {
+            try {
+                if (!visited.add(file.getCanonicalPath())) {
+                    return;
+                }
+            } catch (IOException e) {
+                fail(file, e);
+                return;
+            }
+            File[] children = file.listFiles();
+            if (children == null) {
+                fail(file, new IOException("cannot list directory"));
+                return;
+            }
+            for (File child : children) {
+                walk(child, executor, sink, visited);
+            }
+        } else if (file.isFile()) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        sink.accept(file, hash(file));
+                    } catch (IOException e) {
+                        fail(file, e);
+                    }
+                }
+            });
+        } else if (!file.exists()) {
+            fail(file, new IOException("no such file or directory"));
+        }
+    }
+
+    private NilsimsaDigest hash(File file) throws IOException {
+        Nilsimsa nilsimsa = pool.get();
+        if (file.length() > READ_LIMIT) {
+            nilsimsa.update(file);
+        } else {
+            byte[] buffer = buffers.get();
+            InputStream in = new FileInputStream(file);
+            try {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    nilsimsa.update(buffer, 0, read);
+                }
+            } finally {
+                in.close();
+            }
+        }
+        files.incrementAndGet();
+        bytes.addAndGet(nilsimsa.getCount());
+        return nilsimsa.toDigest();
+    }
+
+    private void fail(File file, IOException e) {
+        failures.incrementAndGet();
+        synchronized (err) {
+            err.println("nilsimsa: " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Return the reference set written by hash mode, as packed digests
+     * followed by their paths.
+     */
+    private static Reference loadReference(File file) throws IOException {
+        Reference reference = new Reference();
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        int magic;
+        try {
+            magic = in.available() >= 4 ? in.readInt() : 0;
+        } finally {
+            in.close();
+        }
+
+        if (magic == NilsimsaStore.MAGIC) {
+            NilsimsaStore store = new NilsimsaStore(file);
+            BufferedReader paths = reader(new File(file.getPath() + PATHS_SUFFIX));
+            try {
+                for (long i = 0; i < store.size(); i++) {
+                    String path = paths.readLine();
+                    if (path == null) {
+                        throw new IOException(file + PATHS_SUFFIX + ": fewer paths than digests");
+                    }
+                    reference.add(store.getDigest(i), path);
+                }
+            } finally {
+                paths.close();
+                store.close();
+            }
+        } else {
+            BufferedReader lines = reader(file);
+            try {
+                String line;
+                int number = 0;
+                while ((line = lines.readLine()) != null) {
+                    number++;
+                    if (line.length() < 66 || line.charAt(64) != ' ' || line.charAt(65) != ' ') {
+                        throw new IOException(file + ":" + number + ": expected a hex digest, two spaces and a path");
+                    }
+                    try {
+                        reference.add(NilsimsaCodec.parseHex(line, 0), line.substring(66));
+                    } catch (IllegalArgumentException e) {
+                        throw new IOException(file + ":" + number + ": " + e.getMessage());
+                    }
+                }
+            } finally {
+                lines.close();
+            }
+        }
+        return reference;
+    }
+
+    private static BufferedReader reader(File file) throws IOException {
+        return new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+    }
+
+    /**
+     * This class parses the command line.
+     */
+    private static final class Options {
+
+        boolean search;
+        int threads = Runtime.getRuntime().availableProcessors();
+        File output;
+        boolean binary;
+        File reference;
+        int threshold = 90;
+        final List<String> paths = new ArrayList<String>();
+
+        Options(String[] args) {
+            if (args.length == 0 || !(args[0].equals("hash") || args[0].equals("search"))) {
+                throw new IllegalArgumentException("expected a mode of hash or search");
+            }
+            search = args[0].equals("search");
+            for (int i = 1; i < args.length; i++) {
+                String arg = args[i];
+                if (arg.equals("-t")) {
+                    threads = number(args, ++i, 1, 1024);
+                } else if (arg.equals("-o") && !search) {
+                    output = new File(value(args, ++i));
+                } else if (arg.equals("-b") && !search) {
+                    binary = true;
+                } else if (arg.equals("-r") && search) {
+                    reference = new File(value(args, ++i));
+                } else if (arg.equals("-s") && search) {
+                    threshold = number(args, ++i, -127, 128);
+                } else if (arg.startsWith("-") && arg.length() > 1) {
+                    throw new IllegalArgumentException("unknown option " + arg);
+                } else {
+                    paths.add(arg);
+                }
+            }
+            if (paths.isEmpty()) {
+                throw new IllegalArgumentException("expected at least one path");
+            }
+            if (binary && output == null) {
+                throw new IllegalArgumentException("-b requires an output file");
+            }
+            if (search && reference == null) {
+                throw new IllegalArgumentException("search requires a reference set");
+            }
+        }
+
+        private static String value(String[] args, int i) {
+            if (i >= args.length) {
+                throw new IllegalArgumentException("missing value for " + args[i - 1]);
+            }
+            return args[i];
+        }
+
+        private static int number(String[] args, int i, int min, int max) {
+            String value = value(args, i);
+            try {
+                int number = Integer.parseInt(value);
+                if (number >= min && number <= max) {
+                    return number;
+                }
+            } catch (NumberFormatException e) {
+                // reported below
+            }
+            throw new IllegalArgumentException(args[i - 1] + " must be a number between " + min + " and " + max
+                    + ", found " + value);
+        }
+    }
+
+    /**
+     * This class holds a reference set in memory as packed digests and paths.
+     */
+    private static final class Reference {
+
+        long[] digests = new long[64];
+        final List<String> paths = new ArrayList<String>();
+
+        void add(NilsimsaDigest digest, String path) {
+            int offset = paths.size() << 2;
+            if (offset == digests.length) {
+                digests = Arrays.copyOf(digests, offset << 1);
+            }
+            digest.writeTo(digests, offset);
+            paths.add(path);
+        }
+
+        long[] packed() {
+            return Arrays.copyOf(digests, paths.size() << 2);
+        }
+    }
+
+    /**
+     * This interface receives the digest of each file, from any worker.
+     */
+    private interface Sink {
+
+        void accept(File file, NilsimsaDigest digest) throws IOException;
+
+        /**
+         * Flush everything written and close the files the sink opened. The
+         * output stream given to run() is only flushed, never closed.
+         */
+        void close() throws IOException;
+    }
+
+    /**
+     * This class writes a line of hex digest and path for each file, to
+     * either the output stream or a file it owns.
+     */
+    private static final class TextSink implements Sink {
+
+        private final Writer out;
+        private final boolean owned;
+        private final char[] line = new char[66];
+
+        TextSink(OutputStream out, boolean owned) throws IOException {
+            this.out = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), 64 * 1024);
+            this.owned = owned;
+            line[64] = ' ';
+            line[65] = ' ';
+        }
+
+        @Override
+        public synchronized void accept(File file, NilsimsaDigest digest) throws IOException {
+            NilsimsaCodec.encodeHex(digest, line, 0);
+            out.write(line);
+            out.write(file.getPath());
+            out.write('\n');
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (owned) {
+                out.close();
+            } else {
+                out.flush();
+            }
+        }
+    }
+
+    /**
+     * This class writes each digest to a store and its path to a separate
+     * file, keeping both in the same order.
+     */
+    private static final class BinarySink implements Sink {
+
+        private final NilsimsaStoreWriter store;
+        private final Writer paths;
+
+        BinarySink(File output) throws IOException {
+            this.store = new NilsimsaStoreWriter(output, Nilsimsa.TRAN53, false);
+            this.paths = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(output.getPath() + PATHS_SUFFIX), "UTF-8"), 64 * 1024);
+        }
+
+        @Override
+        public synchronized void accept(File file, NilsimsaDigest digest) throws IOException {
+            store.append(digest);
+            paths.write(file.getPath());
+            paths.write('\n');
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            try {
+                store.close();
+            } finally {
+                paths.close();
+            }
+        }
+    }
+
+    /**
+     * This class prints the references each file matches to the output
+     * stream.
+     */
+    private static final class SearchSink implements Sink {
+
+        private final Writer out;
+        private final long[] digests;
+        private final List<String> paths;
+        private final int threshold;
+
+        SearchSink(OutputStream out, Reference reference, int threshold) throws IOException {
+            this.out = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), 64 * 1024);
+            this.digests = reference.packed();
+            this.paths = reference.paths;
+            this.threshold = threshold;
+        }
+
+        @Override
+        public void accept(File file, NilsimsaDigest digest) throws IOException {
+            NilsimsaMatches matches = NilsimsaScanner.threshold(digest, digests, threshold);
+            if (matches.size() == 0) {
+                return;
+            }
+            StringBuilder lines = new StringBuilder();
+            for (int i = 0; i < matches.size(); i++) {
+                lines.append(file.getPath()).append('\t').append(paths.get(matches.getIndex(i)))
+                        .append('\t').append(matches.getScore(i)).append('\n');
+            }
+            synchronized (this) {
+                out.write(lines.toString());
+            }
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            out.flush();
+        }
+    }
+}
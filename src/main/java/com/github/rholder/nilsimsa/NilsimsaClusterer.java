@@ -0,0 +1,531 @@
+/*
+ * Copyright 2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.nilsimsa;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * This class groups near-duplicate digests into clusters without comparing
+ * all pairs. Each digest is split into bit blocks, and only records that
+ * share the exact value of at least one block become candidate pairs. Each
+ * candidate pair is verified with the exact compare score, and pairs that
+ * reach the threshold are joined in a concurrent union-find, so clusters are
+ * the connected components of the matching pairs.
+ * <p>
+ * By the pigeonhole principle, two digests that differ in fewer bits than
+ * there are blocks share at least one block exactly. So when the threshold
+ * allows at most {@link #getMaxExactDistance()} differing bits every
+ * matching pair is found; with a lower threshold, pairs that differ in every
+ * block are missed. More blocks find more pairs, but narrower blocks put
+ * more records in each bucket, and the pairs within a bucket are checked
+ * one by one.
+ * <p>
+ * Records with identical digests, common in bulk mail, would otherwise fill
+ * the same bucket of every block. They are found first by sorting on a
+ * fingerprint of the whole digest, each is joined to the first record of
+ * its group with a single check, and only the first record of each group
+ * is split into blocks.
+ * <p>
+ * Each block is sorted by its own task, and the sorted buckets are then
+ * verified in segments by further tasks on the same executor. The caller
+ * waits for them, but no task ever waits on another, so any executor works.
+ * Each block sort holds 8 bytes per record until its buckets are verified.
+ */
+public class NilsimsaClusterer {
+
+    // target number of sorted entries verified per task
+    private static final int SEGMENT_SIZE = 1 << 16;
+
+    private final int threshold;
+    private final int blocks;
+    private final int blockBits;
+    private final long blockMask;
+    private final ExecutorService executor;
+
+    /**
+     * Create a clusterer with 8 blocks of 32 bits each.
+     *
+     * @param threshold the minimum compare score for two records to match, between -127 and 128
+     * @param executor the executor to run the tasks on, left running after clustering
+     */
+    public NilsimsaClusterer(int threshold, ExecutorService executor) {
+        this(threshold, 8, executor);
+    }
+
+    /**
+     * Create a clusterer with the given number of blocks.
+     *
+     * @param threshold the minimum compare score for two records to match, between -127 and 128
+     * @param blocks the number of bit blocks per digest, one of 4, 8, 16, or 32
+     * @param executor the executor to run the tasks on, left running after clustering
+     */
+    public NilsimsaClusterer(int threshold, int blocks, ExecutorService executor) {
+        if (blocks != 4 && blocks != 8 && blocks != 16 && blocks != 32) {
+            throw new IllegalArgumentException("Blocks must be one of 4, 8, 16, or 32, found " + blocks);
+        }
+        this.threshold = threshold;
+        this.blocks = blocks;
+        this.blockBits = 256 / blocks;
+        this.blockMask = blockBits == 64 ? -1L : (1L << blockBits) - 1;
+        this.executor = executor;
+    }
+
+    /**
+     * Return the most bits two digests can differ in and still be certain to
+     * share a block, which is one less than the number of blocks.
+     */
+    public int getMaxExactDistance() {
+        return blocks - 1;
+    }
+
+    /**
+     * Return true when every pair that reaches the threshold is found.
+     */
+    public boolean isExact() {
+        return 128 - threshold <= getMaxExactDistance();
+    }
+
+    /**
+     * Cluster the given records.
+     *
+     * @param ids the id of each record
+     * @param digests the digest of each record, packed 4 words each in the same order as ids
+     * @return the cluster of each record and the counts of pairs checked
+     * @throws InterruptedException if interrupted while waiting for the tasks
+     */
+    public Result cluster(long[] ids, long[] digests) throws InterruptedException {
+        if (digests.length != (long) ids.length * 4) {
+            throw new IllegalArgumentException("Expected " + ids.length * 4L + " packed words for "
+                    + ids.length + " ids, found " + digests.length);
+        }
+        long start = System.nanoTime();
+        Job job = new Job(digests);
+        if (128 - threshold >= 0 && ids.length > 1) {
+            job.run();
+        }
+
+        long[] clusterIds = new long[ids.length];
+        int clusters = 0;
+        for (int i = 0; i < ids.length; i++) {
+            int root = job.find(i);
+            if (root == i) {
+                clusters++;
+            }
+            clusterIds[i] = ids[root];
+        }
+
+        NilsimsaListener listener = NilsimsaMetrics.listener;
+        if (listener != null) {
+            listener.compared(job.checked, System.nanoTime() - start);
+        }
+        long total = (long) ids.length * (ids.length - 1) / 2;
+        return new Result(clusterIds, clusters, total, job.candidates, job.checked, job.matching);
+    }
+
+    /**
+     * Return the value of block b taken from the word that contains it.
+     */
+    private long block(long word, int b) {
+        int shift = 64 - blockBits - ((b * blockBits) & 63);
+        return (word >>> shift) & blockMask;
+    }
+
+    private long block(long[] digests, int record, int b) {
+        return block(digests[(record << 2) + (b * blockBits >> 6)], b);
+    }
+
+    /**
+     * This class holds the state of one call to cluster: the digests, the
+     * union-find over the records, and the running pair counts.
+     */
+    private final class Job {
+
+        final long[] digests;
+        final int maxDistance = 128 - threshold;
+
+        // parent of each record, always a lower index, or itself for the root of a cluster
+        final AtomicIntegerArray parents;
+
+        // the first record of each group of identical digests, the only ones split into blocks
+        int[] representatives;
+
+        long candidates;
+        long checked;
+        long matching;
+
+        Job(long[] digests) {
+            this.digests = digests;
+            int size = digests.length >> 2;
+            this.parents = new AtomicIntegerArray(size);
+            for (int i = 0; i < size; i++) {
+                parents.set(i, i);
+            }
+        }
+
+        void run() throws InterruptedException {
+            joinIdentical();
+            CompletionService<long[]> sorts = new ExecutorCompletionService<long[]>(executor);
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            List<Future<long[]>> scans = new ArrayList<Future<long[]>>();
+            try {
+                for (int b = 0; b < blocks; b++) {
+                    futures.add(sorts.submit(new Sort(b)));
+                }
+
+                // cut each sorted block into segments as soon as it is ready
+                for (int done = 0; done < blocks; done++) {
+                    long[] sorted = sorts.take().get();
+                    int b = (int) sorted[sorted.length - 1];
+                    int size = sorted.length - 1;
+                    int from = 0;
+                    while (from < size) {
+                        int to = Math.min(from + SEGMENT_SIZE, size);
+                        while (to < size && (int) (sorted[to] >> 32) == (int) (sorted[to - 1] >> 32)) {
+                            to++;
+                        }
+                        Future<long[]> scan = executor.submit(new Scan(sorted, b, from, to));
+                        futures.add(scan);
+                        scans.add(scan);
+                        from = to;
+                    }
+                }
+
+                for (Future<long[]> scan : scans) {
+                    long[] counts = scan.get();
+                    candidates += counts[0];
+                    checked += counts[1];
+                    matching += counts[2];
+                }
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw cause instanceof RuntimeException ? (RuntimeException) cause : new IllegalStateException(cause);
+            } finally {
+                // a no-op for tasks already done, stops the rest on failure
+                for (Future<?> future : futures) {
+                    future.cancel(true);
+                }
+            }
+        }
+
+        /**
+         * Join each record to the first record with an identical digest and
+         * keep the rest as representatives. Records are sorted by a 32-bit
+         * fingerprint of the digest and then by index, so each run of equal
+         * fingerprints holds whole groups of identical digests in index
+         * order, plus the rare unequal digest that shares a fingerprint.
+         */
+        void joinIdentical() {
+            int size = digests.length >> 2;
+            long[] sorted = new long[size];
+            for (int i = 0; i < size; i++) {
+                sorted[i] = ((long) fingerprint(i) << 32) | i;
+            }
+            Arrays.sort(sorted);
+
+            int[] firsts = new int[size];
+            int count = 0;
+            int next = 0;
+            while (next < size) {
+                int fingerprint = (int) (sorted[next] >> 32);
+                int groups = count;
+                for (; next < size && (int) (sorted[next] >> 32) == fingerprint; next++) {
+                    int x = (int) sorted[next];
+                    int group = groups;
+                    while (group < count && distance(firsts[group], x) != 0) {
+                        group++;
+                    }
+                    if (group == count) {
+                        firsts[count++] = x;
+                    } else {
+                        candidates++;
+                        checked++;
+                        matching++;
+                        union(firsts[group], x);
+                    }
+                }
+            }
+            representatives = Arrays.copyOf(firsts, count);
+        }
+
+        private int fingerprint(int record) {
+            int offset = record << 2;
+            return LongIntHashMap.mix(digests[offset] ^ Long.rotateLeft(digests[offset + 1], 16)
+                    ^ Long.rotateLeft(digests[offset + 2], 32) ^ Long.rotateLeft(digests[offset + 3], 48));
+        }
+
+        /**
+         * Return the root of the cluster of the given record, halving the
+         * path to it along the way.
+         */
+        int find(int x) {
+            while (true) {
+                int parent = parents.get(x);
+                if (parent == x) {
+                    return x;
+                }
+                int grandparent = parents.get(parent);
+                if (grandparent != parent) {
+                    parents.compareAndSet(x, parent, grandparent);
+                }
+                x = grandparent;
+            }
+        }
+
+        /**
+         * Join the clusters of the two records. The root with the higher
+         * index always goes under the lower one, so no cycle can form and the
+         * root of every cluster ends up as its lowest record.
+         */
+        void union(int a, int b) {
+            while (true) {
+                a = find(a);
+                b = find(b);
+                if (a == b) {
+                    return;
+                }
+                int low = Math.min(a, b);
+                int high = Math.max(a, b);
+                if (parents.compareAndSet(high, high, low)) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * This class sorts the representatives by the value of one block, returning
+         * entries of the bucket in the high 32 bits and the record in the low
+         * 32 bits, followed by the block number.
+         */
+        private final class Sort implements Callable<long[]> {
+
+            private final int b;
+
+            Sort(int b) {
+                this.b = b;
+            }
+
+            @Override
+            public long[] call() {
+                int size = representatives.length;
+                long[] sorted = new long[size + 1];
+                for (int i = 0; i < size; i++) {
+                    int record = representatives[i];
+                    long value = block(digests, record, b);
+                    int bucket = blockBits == 64 ? LongIntHashMap.mix(value) : (int) value;
+                    sorted[i] = ((long) bucket << 32) | record;
+                }
+                Arrays.sort(sorted, 0, size);
+                sorted[size] = b;
+                return sorted;
+            }
+        }
+
+        /**
+         * This class verifies the pairs within the buckets of one segment of
+         * a sorted block, returning the number of candidate pairs, checked
+         * pairs and matching pairs.
+         */
+        private final class Scan implements Callable<long[]> {
+
+            private final long[] sorted;
+            private final int b;
+            private final int from;
+            private final int to;
+
+            Scan(long[] sorted, int b, int from, int to) {
+                this.sorted = sorted;
+                this.b = b;
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            public long[] call() {
+                long candidates = 0;
+                long checked = 0;
+                long matching = 0;
+                int first = from;
+                while (first < to) {
+                    int bucket = (int) (sorted[first] >> 32);
+                    int end = first + 1;
+                    while (end < to && (int) (sorted[end] >> 32) == bucket) {
+                        end++;
+                    }
+                    for (int j = first + 1; j < end; j++) {
+                        int y = (int) sorted[j];
+                        for (int k = first; k < j; k++) {
+                            int x = (int) sorted[k];
+                            if (!firstSharedBlock(x, y)) {
+                                continue;
+                            }
+                            candidates++;
+                            if (find(x) == find(y)) {
+                                continue;
+                            }
+                            checked++;
+                            if (distance(x, y) <= maxDistance) {
+                                matching++;
+                                union(x, y);
+                            }
+                        }
+                    }
+                    first = end;
+                }
+                return new long[]{candidates, checked, matching};
+            }
+
+            /**
+             * Return true when block b is the first block the two records
+             * share, so that each candidate pair is only counted in one
+             * block. This also drops pairs whose hashed 64-bit blocks
+             * collided without being equal.
+             */
+            private boolean firstSharedBlock(int x, int y) {
+                for (int earlier = 0; earlier < b; earlier++) {
+                    if (block(digests, x, earlier) == block(digests, y, earlier)) {
+                        return false;
+                    }
+                }
+                return blockBits != 64 || block(digests, x, b) == block(digests, y, b);
+            }
+        }
+
+        private int distance(int x, int y) {
+            int ox = x << 2;
+            int oy = y << 2;
+            return Long.bitCount(digests[ox] ^ digests[oy])
+                    + Long.bitCount(digests[ox + 1] ^ digests[oy + 1])
+                    + Long.bitCount(digests[ox + 2] ^ digests[oy + 2])
+                    + Long.bitCount(digests[ox + 3] ^ digests[oy + 3]);
+        }
+    }
+
+    /**
+     * This class holds the cluster of each record, along with how many pairs
+     * were looked at to find them.
+     */
+    public static final class Result {
+
+        private final long[] clusterIds;
+        private final int clusters;
+        private final long totalPairs;
+        private final long candidatePairs;
+        private final long checkedPairs;
+        private final long matchingPairs;
+
+        Result(long[] clusterIds, int clusters, long totalPairs, long candidatePairs, long checkedPairs,
+               long matchingPairs) {
+            this.clusterIds = clusterIds;
+            this.clusters = clusters;
+            this.totalPairs = totalPairs;
+            this.candidatePairs = candidatePairs;
+            this.checkedPairs = checkedPairs;
+            this.matchingPairs = matchingPairs;
+        }
+
+        /**
+         * Return the number of records clustered.
+         */
+        public int size() {
+            return clusterIds.length;
+        }
+
+        /**
+         * Return the cluster of a record, as the id of the first record in
+         * the same cluster. A record that matches nothing is its own cluster.
+         *
+         * @param index the index of the record in the input
+         */
+        public long getClusterId(int index) {
+            return clusterIds[index];
+        }
+
+        /**
+         * Return a copy of the cluster of each record, in input order.
+         */
+        public long[] getClusterIds() {
+            return clusterIds.clone();
+        }
+
+        /**
+         * Return the number of distinct clusters, including single records.
+         */
+        public int getClusterCount() {
+            return clusters;
+        }
+
+        /**
+         * Return the number of pairs an all-pairs comparison would check.
+         */
+        public long getTotalPairs() {
+            return totalPairs;
+        }
+
+        /**
+         * Return the number of distinct pairs that shared a block, plus one
+         * pair for each record joined to an earlier identical digest. Pairs
+         * among identical digests are not counted again.
+         */
+        public long getCandidatePairs() {
+            return candidatePairs;
+        }
+
+        /**
+         * Return the number of pairs verified with an exact compare. A
+         * candidate pair already in the same cluster is not verified, and a
+         * record with an identical digest to an earlier one is only checked
+         * against the first record of its group.
+         */
+        public long getCheckedPairs() {
+            return checkedPairs;
+        }
+
+        /**
+         * Return the number of pairs never verified, either because they
+         * share no block or because they were already in the same cluster.
+         */
+        public long getPrunedPairs() {
+            return totalPairs - checkedPairs;
+        }
+
+        /**
+         * Return the number of verified pairs that reached the threshold.
+         */
+        public long getMatchingPairs() {
+            return matchingPairs;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{size=" + size() + ", clusters=" + clusters + ", totalPairs=" + totalPairs
+                    + ", candidatePairs=" + candidatePairs + ", checkedPairs=" + checkedPairs
+                    + ", matchingPairs=" + matchingPairs + '}';
+        }
+    }
+}
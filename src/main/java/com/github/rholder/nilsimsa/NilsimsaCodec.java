@@ -0,0 +1,384 @@
+/*
+ * Copyright 2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.nilsimsa;
+
+import java.util.Arrays;
+
+/**
+ * This class converts digests to and from their text and binary forms:
+ * <ul>
+ * <li>hex, 64 characters as returned by {@link Nilsimsa#toHexDigest()}</li>
+ * <li>raw, the 32 bytes of the digest in the same order</li>
+ * <li>Base64, the raw bytes as 44 characters of the standard alphabet with
+ * padding, for compact storage in text columns</li>
+ * </ul>
+ * Conversions are table-driven, read from any {@link CharSequence} at an
+ * offset and can write into caller-supplied arrays, so they need not
+ * allocate. Decoding validates its input: an invalid character throws an
+ * {@link IllegalArgumentException}, and input that is too short for the
+ * offset throws an {@link IndexOutOfBoundsException}.
+ */
+public final class NilsimsaCodec {
+
+    /**
+     * The number of characters in a hex digest.
+     */
+    public static final int HEX_LENGTH = 64;
+
+    /**
+     * The number of bytes in a raw digest.
+     */
+    public static final int RAW_LENGTH = 32;
+
+    /**
+     * The number of characters in a Base64 digest, including the padding.
+     */
+    public static final int BASE64_LENGTH = 44;
+
+    // lowercase hex characters by value, shared with Nilsimsa
+    static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    // value of each ASCII character as a hex or Base64 digit, or -1 when it is not one
+    static final byte[] HEX_VALUES = values(HEX, "ABCDEF".toCharArray(), 10);
+    private static final byte[] BASE64_VALUES = values(BASE64, new char[0], 0);
+
+    private NilsimsaCodec() {
+    }
+
+    private static byte[] values(char[] digits, char[] alternates, int alternateBase) {
+        byte[] values = new byte[128];
+        Arrays.fill(values, (byte) -1);
+        for (int i = 0; i < digits.length; i++) {
+            values[digits[i]] = (byte) i;
+        }
+        for (int i = 0; i < alternates.length; i++) {
+            values[alternates[i]] = (byte) (alternateBase + i);
+        }
+        return values;
+    }
+
+    /**
+     * Return the value of a character as a hex digit in either case, or -1
+     * when it is not one.
+     *
+     * @param c the character to convert
+     */
+    static int hexValue(char c) {
+        return c < 128 ? HEX_VALUES[c] : -1;
+    }
+
+    /**
+     * Return the digest from 64 hex characters of the given sequence,
+     * starting at the given offset. Upper and lower case are both accepted.
+     *
+     * @param src the characters to read
+     * @param offset the index of the first character of the digest
+     */
+    public static NilsimsaDigest parseHex(CharSequence src, int offset) {
+        checkRange(src.length(), offset, HEX_LENGTH);
+        return new NilsimsaDigest(hexWord(src, offset), hexWord(src, offset + 16),
+                hexWord(src, offset + 32), hexWord(src, offset + 48));
+    }
+
+    /**
+     * Decode 64 hex characters of the given sequence into 32 bytes.
+     *
+     * @param src the characters to read
+     * @param srcOffset the index of the first character of the digest
+     * @param dest the target array
+     * @param destOffset the index in dest for the first byte
+     */
+    public static void decodeHex(CharSequence src, int srcOffset, byte[] dest, int destOffset) {
+        checkRange(src.length(), srcOffset, HEX_LENGTH);
+        checkRange(dest.length, destOffset, RAW_LENGTH);
+        for (int i = 0; i < RAW_LENGTH; i++) {
+            dest[destOffset + i] = (byte) hexByte(src, srcOffset + (i << 1));
+        }
+    }
+
+    /**
+     * Decode 64 hex characters of the given sequence into 32 ints, one byte
+     * per int, the form used by {@link Nilsimsa#compare(int[], int[])}.
+     *
+     * @param src the characters to read
+     * @param srcOffset the index of the first character of the digest
+     * @param dest the target array
+     * @param destOffset the index in dest for the first byte
+     */
+    public static void decodeHex(CharSequence src, int srcOffset, int[] dest, int destOffset) {
+        checkRange(src.length(), srcOffset, HEX_LENGTH);
+        checkRange(dest.length, destOffset, RAW_LENGTH);
+        for (int i = 0; i < RAW_LENGTH; i++) {
+            dest[destOffset + i] = hexByte(src, srcOffset + (i << 1));
+        }
+    }
+
+    /**
+     * Write the digest as 64 lowercase hex characters to dest.
+     *
+     * @param digest the digest to write
+     * @param dest the target array
+     * @param offset the index in dest for the first character
+     */
+    public static void encodeHex(NilsimsaDigest digest, char[] dest, int offset) {
+        checkRange(dest.length, offset, HEX_LENGTH);
+        for (int w = 0; w < 4; w++) {
+            long word = digest.getWord(w);
+            int o = offset + (w << 4);
+            for (int i = 15; i >= 0; i--) {
+                dest[o + i] = HEX[(int) word & 15];
+                word >>>= 4;
+            }
+        }
+    }
+
+    /**
+     * Append the digest as 64 lowercase hex characters to the given builder.
+     *
+     * @param digest the digest to write
+     * @param dest the target builder
+     * @return the given builder for chaining
+     */
+    public static StringBuilder appendHex(NilsimsaDigest digest, StringBuilder dest) {
+        for (int w = 0; w < 4; w++) {
+            long word = digest.getWord(w);
+            for (int shift = 60; shift >= 0; shift -= 4) {
+                dest.append(HEX[(int) (word >>> shift) & 15]);
+            }
+        }
+        return dest;
+    }
+
+    /**
+     * Return the digest as 64 lowercase hex characters.
+     *
+     * @param digest the digest to write
+     */
+    public static String toHex(NilsimsaDigest digest) {
+        char[] hex = new char[HEX_LENGTH];
+        encodeHex(digest, hex, 0);
+        return new String(hex);
+    }
+
+    /**
+     * Return the digest from 32 raw bytes of the given array.
+     *
+     * @param src the bytes to read
+     * @param offset the index of the first byte of the digest
+     */
+    public static NilsimsaDigest decodeRaw(byte[] src, int offset) {
+        checkRange(src.length, offset, RAW_LENGTH);
+        return new NilsimsaDigest(rawWord(src, offset), rawWord(src, offset + 8),
+                rawWord(src, offset + 16), rawWord(src, offset + 24));
+    }
+
+    /**
+     * Write the digest as 32 raw bytes to dest.
+     *
+     * @param digest the digest to write
+     * @param dest the target array
+     * @param offset the index in dest for the first byte
+     */
+    public static void encodeRaw(NilsimsaDigest digest, byte[] dest, int offset) {
+        checkRange(dest.length, offset, RAW_LENGTH);
+        for (int i = 0; i < RAW_LENGTH; i++) {
+            dest[offset + i] = (byte) byteAt(digest, i);
+        }
+    }
+
+    /**
+     * Return the digest from 44 Base64 characters of the given sequence,
+     * starting at the given offset. Only the canonical encoding of a digest
+     * is accepted, ending in a single '=' of padding.
+     *
+     * @param src the characters to read
+     * @param offset the index of the first character of the digest
+     */
+    public static NilsimsaDigest parseBase64(CharSequence src, int offset) {
+        checkRange(src.length(), offset, BASE64_LENGTH);
+        long[] words = new long[4];
+        int byteIndex = 0;
+
+        // 10 groups of 4 characters hold the first 30 bytes
+        for (int group = 0; group < 10; group++) {
+            int o = offset + (group << 2);
+            int bits = (base64Value(src, o) << 18) | (base64Value(src, o + 1) << 12)
+                    | (base64Value(src, o + 2) << 6) | base64Value(src, o + 3);
+            for (int shift = 16; shift >= 0; shift -= 8) {
+                words[byteIndex >> 3] = (words[byteIndex >> 3] << 8) | ((bits >> shift) & 0xFF);
+                byteIndex++;
+            }
+        }
+
+        // the last 2 bytes take 3 characters, whose unused low 2 bits must be 0, and the padding
+        int o = offset + 40;
+        int bits = (base64Value(src, o) << 12) | (base64Value(src, o + 1) << 6) | base64Value(src, o + 2);
+        if ((bits & 3) != 0 || src.charAt(o + 3) != '=') {
+            throw new IllegalArgumentException("Invalid Base64 digest ending at index " + (o + 3));
+        }
+        words[3] = (words[3] << 16) | (bits >> 2);
+        return new NilsimsaDigest(words[0], words[1], words[2], words[3]);
+    }
+
+    /**
+     * Write the digest as 44 Base64 characters to dest.
+     *
+     * @param digest the digest to write
+     * @param dest the target array
+     * @param offset the index in dest for the first character
+     */
+    public static void encodeBase64(NilsimsaDigest digest, char[] dest, int offset) {
+        checkRange(dest.length, offset, BASE64_LENGTH);
+        int o = offset;
+        for (int i = 0; i < 30; i += 3) {
+            int bits = (byteAt(digest, i) << 16) | (byteAt(digest, i + 1) << 8) | byteAt(digest, i + 2);
+            dest[o++] = BASE64[bits >> 18];
+            dest[o++] = BASE64[(bits >> 12) & 63];
+            dest[o++] = BASE64[(bits >> 6) & 63];
+            dest[o++] = BASE64[bits & 63];
+        }
+        int bits = (byteAt(digest, 30) << 8) | byteAt(digest, 31);
+        dest[o++] = BASE64[bits >> 10];
+        dest[o++] = BASE64[(bits >> 4) & 63];
+        dest[o++] = BASE64[(bits << 2) & 63];
+        dest[o] = '=';
+    }
+
+    /**
+     * Return the digest as 44 Base64 characters.
+     *
+     * @param digest the digest to write
+     */
+    public static String toBase64(NilsimsaDigest digest) {
+        char[] base64 = new char[BASE64_LENGTH];
+        encodeBase64(digest, base64, 0);
+        return new String(base64);
+    }
+
+    /**
+     * Compute the difference in bits between two hex digests without
+     * converting them to arrays, the same as
+     * {@link Nilsimsa#compare(int[], int[])} on the parsed digests.
+     *
+     * @param digest1 first hex digest to compare, of 64 characters
+     * @param digest2 second hex digest to compare, of 64 characters
+     * @return a value between -127 and 128, from least similar to most
+     */
+    public static int compareHex(CharSequence digest1, CharSequence digest2) {
+        checkLength(digest1);
+        checkLength(digest2);
+        return compareHex(digest1, 0, digest2, 0);
+    }
+
+    /**
+     * Compute the difference in bits between two hex digests read from the
+     * given offsets, without converting them to arrays.
+     *
+     * @param digest1 characters holding the first hex digest
+     * @param offset1 the index of the first character of the first digest
+     * @param digest2 characters holding the second hex digest
+     * @param offset2 the index of the first character of the second digest
+     * @return a value between -127 and 128, from least similar to most
+     */
+    public static int compareHex(CharSequence digest1, int offset1, CharSequence digest2, int offset2) {
+        checkRange(digest1.length(), offset1, HEX_LENGTH);
+        checkRange(digest2.length(), offset2, HEX_LENGTH);
+        int bits = 0;
+        for (int i = 0; i < HEX_LENGTH; i += 16) {
+            bits += Long.bitCount(hexWord(digest1, offset1 + i) ^ hexWord(digest2, offset2 + i));
+        }
+        NilsimsaListener listener = NilsimsaMetrics.listener;
+        if (listener != null) {
+            listener.compared(1, 0);
+        }
+        return 128 - bits;
+    }
+
+    /**
+     * Return 16 hex characters starting at the given index as a long. The
+     * values are OR-ed together along the way so that a single check at the
+     * end catches any invalid character.
+     */
+    private static long hexWord(CharSequence src, int index) {
+        long word = 0;
+        int invalid = 0;
+        for (int i = index; i < index + 16; i++) {
+            int value = hexValue(src.charAt(i));
+            invalid |= value;
+            word = (word << 4) | value;
+        }
+        if (invalid < 0) {
+            throw invalidHex(src, index);
+        }
+        return word;
+    }
+
+    private static int hexByte(CharSequence src, int index) {
+        int high = hexValue(src.charAt(index));
+        int low = hexValue(src.charAt(index + 1));
+        if ((high | low) < 0) {
+            throw invalidHex(src, index);
+        }
+        return (high << 4) | low;
+    }
+
+    private static IllegalArgumentException invalidHex(CharSequence src, int from) {
+        for (int i = from; ; i++) {
+            if (hexValue(src.charAt(i)) < 0) {
+                return new IllegalArgumentException("Invalid hex character '" + src.charAt(i) + "' at index " + i);
+            }
+        }
+    }
+
+    private static int base64Value(CharSequence src, int index) {
+        char c = src.charAt(index);
+        int value = c < 128 ? BASE64_VALUES[c] : -1;
+        if (value < 0) {
+            throw new IllegalArgumentException("Invalid Base64 character '" + c + "' at index " + index);
+        }
+        return value;
+    }
+
+    private static long rawWord(byte[] src, int offset) {
+        long word = 0;
+        for (int i = offset; i < offset + 8; i++) {
+            word = (word << 8) | (src[i] & 0xFF);
+        }
+        return word;
+    }
+
+    /**
+     * Return byte i of the digest, between 0 - 31, in hex digest order.
+     */
+    private static int byteAt(NilsimsaDigest digest, int i) {
+        return (int) (digest.getWord(i >> 3) >>> (56 - ((i & 7) << 3))) & 0xFF;
+    }
+
+    private static void checkLength(CharSequence digest) {
+        if (digest.length() != HEX_LENGTH) {
+            throw new IllegalArgumentException("A hex digest must contain 64 characters, found " + digest.length());
+        }
+    }
+
+    private static void checkRange(int length, int offset, int size) {
+        if (offset < 0 || offset > length - size) {
+            throw new IndexOutOfBoundsException("Range [" + offset + ", " + offset + " + " + size
+                    + ") out of bounds for length " + length);
+        }
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright 2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.nilsimsa;
+
+/**
+ * This class is an immutable, compact representation of a 256-bit Nilsimsa
+ * digest stored as four longs. The first word holds the first 8 bytes of the
+ * digest as they appear in {@link Nilsimsa#digest()}, most significant byte
+ * first, so the words read left to right are the same as the hex digest.
+ */
+public final class NilsimsaDigest {
+
+    private final long word0;
+    private final long word1;
+    private final long word2;
+    private final long word3;
+
+    /**
+     * Create a digest from its four 64-bit words, in hex digest order.
+     *
+     * @param word0 the first 16 hex characters of the digest
+     * @param word1 the second 16 hex characters of the digest
+     * @param word2 the third 16 hex characters of the digest
+     * @param word3 the last 16 hex characters of the digest
+     */
+    public NilsimsaDigest(long word0, long word1, long word2, long word3) {
+        this.word0 = word0;
+        this.word1 = word1;
+        this.word2 = word2;
+        this.word3 = word3;
+    }
+
+    /**
+     * Return a digest from the given accumulators, setting each bit whose
+     * accumulator is over the threshold.
+     *
+     * @param acc the 256 accumulators of a hash
+     * @param threshold the mean value of the accumulators
+     */
+    static NilsimsaDigest fromAccumulator(int[] acc, long threshold) {
+        return new NilsimsaDigest(word(acc, threshold, 0), word(acc, threshold, 1),
+                word(acc, threshold, 2), word(acc, threshold, 3));
+    }
+
+    /**
+     * Write the 4 words of a digest for the given accumulators to dest.
+     *
+     * @param acc the 256 accumulators of a hash
+     * @param threshold the mean value of the accumulators
+     * @param dest the target array
+     * @param offset the index in dest for the first word
+     */
+    static void accumulate(int[] acc, long threshold, long[] dest, int offset) {
+        for (int w = 0; w < 4; w++) {
+            dest[offset + w] = word(acc, threshold, w);
+        }
+    }
+
+    /**
+     * Return word w of the digest for the given accumulators. Bit i of the
+     * accumulators ends up in byte 31 - i / 8 of the digest, which is bit
+     * i % 64 of word 3 - i / 64.
+     *
+     * @param acc the 256 accumulators of a hash
+     * @param threshold the mean value of the accumulators
+     * @param w the word to compute, between 0 - 3
+     */
+    private static long word(int[] acc, long threshold, int w) {
+        long word = 0;
+        int base = (3 - w) << 6;
+        for (int i = 0; i < 64; i++) {
+            if (acc[base + i] > threshold) {
+                word |= 1L << i;
+            }
+        }
+        return word;
+    }
+
+    /**
+     * Return a digest from the given array of 32 ints, one byte per int, as
+     * returned by {@link Nilsimsa#digest()}.
+     *
+     * @param digest the digest as an array of ints
+     */
+    public static NilsimsaDigest fromInts(int[] digest) {
+        if (digest.length != 32) {
+            throw new IllegalArgumentException("A digest must contain 32 values, found " + digest.length);
+        }
+        long[] words = new long[4];
+        for (int i = 0; i < 32; i++) {
+            words[i >> 3] = (words[i >> 3] << 8) | (digest[i] & 0xFF);
+        }
+        return new NilsimsaDigest(words[0], words[1], words[2], words[3]);
+    }
+
+    /**
+     * Return a digest from the given String of 64 hex characters, as returned
+     * by {@link Nilsimsa#toHexDigest()}.
+     *
+     * @param hex the digest as a String of hex characters
+     * @throws IllegalArgumentException if the String is not 64 hex characters
+     */
+    public static NilsimsaDigest fromHex(String hex) {
+        if (hex.length() != NilsimsaCodec.HEX_LENGTH) {
+            throw new IllegalArgumentException("A hex digest must contain 64 characters, found " + hex.length());
+        }
+        return NilsimsaCodec.parseHex(hex, 0);
+    }
+
+    /**
+     * Return a digest from the given String of 44 Base64 characters, as
+     * returned by {@link #toBase64()}.
+     *
+     * @param base64 the digest as a String of Base64 characters
+     * @throws IllegalArgumentException if the String is not a Base64 digest
+     */
+    public static NilsimsaDigest fromBase64(String base64) {
+        if (base64.length() != NilsimsaCodec.BASE64_LENGTH) {
+            throw new IllegalArgumentException("A Base64 digest must contain 44 characters, found " + base64.length());
+        }
+        return NilsimsaCodec.parseBase64(base64, 0);
+    }
+
+    /**
+     * Return a digest from the given array of 32 raw bytes, as returned by
+     * {@link #toBytes()}.
+     *
+     * @param bytes the digest as an array of bytes
+     */
+    public static NilsimsaDigest fromBytes(byte[] bytes) {
+        if (bytes.length != NilsimsaCodec.RAW_LENGTH) {
+            throw new IllegalArgumentException("A digest must contain 32 bytes, found " + bytes.length);
+        }
+        return NilsimsaCodec.decodeRaw(bytes, 0);
+    }
+
+    /**
+     * Return a digest from 4 consecutive words of a packed array.
+     *
+     * @param packed an array holding digests as 4 words each
+     * @param offset the index of the first word of the digest
+     */
+    public static NilsimsaDigest fromLongs(long[] packed, int offset) {
+        return new NilsimsaDigest(packed[offset], packed[offset + 1], packed[offset + 2], packed[offset + 3]);
+    }
+
+    /**
+     * Return one of the 4 words of this digest, in hex digest order.
+     *
+     * @param index the word to return, between 0 - 3
+     */
+    public long getWord(int index) {
+        switch (index) {
+            case 0:
+                return word0;
+            case 1:
+                return word1;
+            case 2:
+                return word2;
+            case 3:
+                return word3;
+            default:
+                throw new IndexOutOfBoundsException("Word index must be between 0 - 3, found " + index);
+        }
+    }
+
+    /**
+     * Write the 4 words of this digest to a packed array.
+     *
+     * @param dest the target array
+     * @param offset the index in dest for the first word
+     */
+    public void writeTo(long[] dest, int offset) {
+        dest[offset] = word0;
+        dest[offset + 1] = word1;
+        dest[offset + 2] = word2;
+        dest[offset + 3] = word3;
+    }
+
+    /**
+     * Return this digest as an array of 32 ints, one byte per int, the same
+     * as {@link Nilsimsa#digest()}.
+     */
+    public int[] toInts() {
+        int[] digest = new int[32];
+        for (int i = 0; i < 32; i++) {
+            digest[i] = (int) (getWord(i >> 3) >>> (56 - ((i & 7) << 3))) & 0xFF;
+        }
+        return digest;
+    }
+
+    /**
+     * Return this digest as 64 hex characters, the same as
+     * {@link Nilsimsa#toHexDigest()}.
+     */
+    public String toHex() {
+        return NilsimsaCodec.toHex(this);
+    }
+
+    /**
+     * Return this digest as 44 Base64 characters, see
+     * {@link NilsimsaCodec#encodeBase64(NilsimsaDigest, char[], int)}.
+     */
+    public String toBase64() {
+        return NilsimsaCodec.toBase64(this);
+    }
+
+    /**
+     * Return this digest as 32 raw bytes, in the same order as
+     * {@link #toInts()}.
+     */
+    public byte[] toBytes() {
+        byte[] bytes = new byte[NilsimsaCodec.RAW_LENGTH];
+        NilsimsaCodec.encodeRaw(this, bytes, 0);
+        return bytes;
+    }
+
+    /**
+     * Return the number of bits that differ between this digest and other,
+     * between 0 - 256.
+     *
+     * @param other digest to compare
+     */
+    public int distance(NilsimsaDigest other) {
+        return Long.bitCount(word0 ^ other.word0)
+                + Long.bitCount(word1 ^ other.word1)
+                + Long.bitCount(word2 ^ other.word2)
+                + Long.bitCount(word3 ^ other.word3);
+    }
+
+    /**
+     * Compute the difference in bits between this digest and other, the same
+     * as {@link Nilsimsa#compare(int[], int[])}. Returns -127 to 128; 128 is
+     * the same, -127 is different.
+     *
+     * @param other digest to compare
+     * @return a value between -127 and 128, from least similar to most
+     */
+    public int compare(NilsimsaDigest other) {
+        NilsimsaListener listener = NilsimsaMetrics.listener;
+        if (listener != null) {
+            listener.compared(1, 0);
+        }
+        return 128 - distance(other);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof NilsimsaDigest)) {
+            return false;
+        }
+        NilsimsaDigest other = (NilsimsaDigest) o;
+        return word0 == other.word0 && word1 == other.word1 && word2 == other.word2 && word3 == other.word3;
+    }
+
+    @Override
+    public int hashCode() {
+        long h = word0;
+        h = 31 * h + word1;
+        h = 31 * h + word2;
+        h = 31 * h + word3;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return toHex();
+    }
+}
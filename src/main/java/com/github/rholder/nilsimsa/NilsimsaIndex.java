@@ -0,0 +1,433 @@
+/*
+ * Copyright 2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.nilsimsa;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This class provides an in-memory near-duplicate index of digests using
+ * multi-index hashing. Each 256-bit digest is split into a number of equal
+ * bit blocks and each block value is stored in its own hash table. By the
+ * pigeonhole principle, two digests that differ in at most r bits must have
+ * at least one block that differs in at most r / blocks bits, so a lookup
+ * only has to probe each block table for the query's block value and its
+ * neighbors within that many bit flips, then verify the few candidates found
+ * with an exact compare.
+ * <p>
+ * Probing a block within s bits costs 1 + C(b, 1) + ... + C(b, s) hash
+ * lookups for b bits per block, so the probe radius is capped when the index
+ * is created. A lookup is exact for any distance of up to
+ * {@link #getMaxExactDistance()} bits, meaning a score of at least 128 minus
+ * that. Beyond it the lookup still runs with the capped probe radius and
+ * finds only the matches that share a nearly identical block, which trades
+ * recall for latency. Each {@link Result} reports whether it was exact and how
+ * many probes and candidate verifications it took. The README lists the recall,
+ * probes, candidates, and latency measured for each layout, and
+ * IndexBenchmark reproduces them.
+ * <p>
+ * All entries live in a single set of block tables behind one read/write
+ * lock. Lookups, gets, and size take the read lock and run concurrently with
+ * each other. Puts and removes take the write lock, so writes are serialized
+ * and wait for any lookup in progress.
+ */
+public class NilsimsaIndex {
+
+    private final int blocks;
+    private final int blockBits;
+    private final long blockMask;
+    private final int maxProbeRadius;
+    private final Lock readLock;
+    private final Lock writeLock;
+    private final Table table;
+
+    /**
+     * Create an index of 16 blocks of 16 bits each, probed within 1 bit,
+     * exact for scores of 97 and above.
+     */
+    public NilsimsaIndex() {
+        this(16, 1);
+    }
+
+    /**
+     * Create an index with the given layout.
+     *
+     * @param blocks the number of bit blocks per digest, one of 4, 8, 16, or 32
+     * @param maxProbeRadius the most bits to flip when probing a block, between 0 - 3
+     */
+    public NilsimsaIndex(int blocks, int maxProbeRadius) {
+        if (blocks != 4 && blocks != 8 && blocks != 16 && blocks != 32) {
+            throw new IllegalArgumentException("Blocks must be one of 4, 8, 16, or 32, found " + blocks);
+        }
+        if (maxProbeRadius < 0 || maxProbeRadius > 3) {
+            throw new IllegalArgumentException("Max probe radius must be between 0 - 3, found " + maxProbeRadius);
+        }
+        this.blocks = blocks;
+        this.blockBits = 256 / blocks;
+        this.blockMask = blockBits == 64 ? -1L : (1L << blockBits) - 1;
+        this.maxProbeRadius = maxProbeRadius;
+        ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        this.readLock = lock.readLock();
+        this.writeLock = lock.writeLock();
+        this.table = new Table();
+    }
+
+    /**
+     * Return the largest number of differing bits for which a lookup is
+     * guaranteed to find every match.
+     */
+    public int getMaxExactDistance() {
+        return blocks * (maxProbeRadius + 1) - 1;
+    }
+
+    /**
+     * Add a digest to the index under the given id, replacing any digest
+     * already stored for that id.
+     *
+     * @param id an external id for the digest
+     * @param digest the digest to index
+     */
+    public void put(long id, NilsimsaDigest digest) {
+        writeLock.lock();
+        try {
+            table.remove(id);
+            table.add(id, digest);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Remove the digest stored under the given id.
+     *
+     * @param id an external id for the digest
+     * @return true if the id was in the index
+     */
+    public boolean remove(long id) {
+        writeLock.lock();
+        try {
+            return table.remove(id);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Return the digest stored under the given id, or null if there is none.
+     *
+     * @param id an external id for the digest
+     */
+    public NilsimsaDigest get(long id) {
+        readLock.lock();
+        try {
+            int slot = table.ids.get(id);
+            return slot == LongIntHashMap.MISSING ? null : NilsimsaDigest.fromLongs(table.words, slot << 2);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Return the number of digests in the index.
+     */
+    public int size() {
+        readLock.lock();
+        try {
+            return table.ids.size();
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Return every indexed digest that compares to the query with a score of
+     * at least the given threshold. See {@link Result#isExact()} for whether
+     * every such digest is guaranteed to be found.
+     *
+     * @param query the digest to look up
+     * @param threshold the minimum compare score, between -127 and 128
+     * @return the matching ids and their scores, in no particular order
+     */
+    public Result lookup(NilsimsaDigest query, int threshold) {
+        int maxDistance = 128 - threshold;
+        Result result = new Result();
+        if (maxDistance < 0) {
+            result.exact = true;
+            return result;
+        }
+
+        int radius = maxDistance / blocks;
+        result.exact = radius <= maxProbeRadius;
+
+        long start = NilsimsaScanner.startScan();
+        Query q = new Query(query, Math.min(radius, maxProbeRadius), maxDistance, result);
+        readLock.lock();
+        try {
+            for (int b = 0; b < blocks; b++) {
+                probe(q, b, q.blocks[b], 0, q.radius);
+            }
+        } finally {
+            readLock.unlock();
+        }
+        NilsimsaScanner.scanned(result.candidates, start);
+        return result;
+    }
+
+    /**
+     * Probe block b for the given key and every key reachable by
+     * flipping up to flips more bits at or above position from.
+     */
+    private void probe(Query q, int b, long key, int from, int flips) {
+        q.result.probes++;
+        for (int slot = table.heads[b].get(key); slot != LongIntHashMap.MISSING; slot = table.next[slot * blocks + b]) {
+            verify(q, b, slot);
+        }
+        if (flips > 0) {
+            for (int bit = from; bit < blockBits; bit++) {
+                probe(q, b, key ^ (1L << bit), bit + 1, flips - 1);
+            }
+        }
+    }
+
+    /**
+     * Verify a candidate found in block b with an exact compare. A candidate
+     * that is also within the probe radius in an earlier block was already
+     * verified when that block was probed, so it is skipped here.
+     */
+    private void verify(Query q, int b, int slot) {
+        long[] words = table.words;
+        int offset = slot << 2;
+        for (int earlier = 0; earlier < b; earlier++) {
+            long candidate = block(words[offset + (earlier * blockBits >> 6)], earlier);
+            if (Long.bitCount(candidate ^ q.blocks[earlier]) <= q.radius) {
+                return;
+            }
+        }
+
+        q.result.candidates++;
+        int bits = Long.bitCount(words[offset] ^ q.words[0])
+                + Long.bitCount(words[offset + 1] ^ q.words[1])
+                + Long.bitCount(words[offset + 2] ^ q.words[2])
+                + Long.bitCount(words[offset + 3] ^ q.words[3]);
+        if (bits <= q.maxDistance) {
+            q.result.add(table.slotIds[slot], 128 - bits);
+        }
+    }
+
+    /**
+     * Return the value of block b taken from the word that contains it.
+     */
+    private long block(long word, int b) {
+        int shift = 64 - blockBits - ((b * blockBits) & 63);
+        return (word >>> shift) & blockMask;
+    }
+
+    /**
+     * This class holds the query digest split into words and blocks along
+     * with the bounds of a single lookup.
+     */
+    private final class Query {
+
+        final long[] words = new long[4];
+        final long[] blocks = new long[NilsimsaIndex.this.blocks];
+        final int radius;
+        final int maxDistance;
+        final Result result;
+
+        Query(NilsimsaDigest digest, int radius, int maxDistance, Result result) {
+            digest.writeTo(words, 0);
+            for (int b = 0; b < blocks.length; b++) {
+                blocks[b] = block(words[b * blockBits >> 6], b);
+            }
+            this.radius = radius;
+            this.maxDistance = maxDistance;
+            this.result = result;
+        }
+    }
+
+    /**
+     * This class holds the entries of the index: the digests stored in slots,
+     * a map of ids to slots, and per block a map from block value to the first
+     * slot of a chain of slots sharing that value.
+     */
+    private final class Table {
+
+        // 4 words per slot
+        long[] words = new long[64];
+        long[] slotIds = new long[16];
+
+        // next slot in the chain for each block, blocks entries per slot
+        int[] next = new int[16 * blocks];
+
+        // slots freed by removes, reused before growing
+        int[] free = new int[16];
+        int freeCount;
+        int slotCount;
+
+        final LongIntHashMap ids = new LongIntHashMap();
+        final LongIntHashMap[] heads = new LongIntHashMap[blocks];
+
+        Table() {
+            for (int b = 0; b < blocks; b++) {
+                heads[b] = new LongIntHashMap();
+            }
+        }
+
+        void add(long id, NilsimsaDigest digest) {
+            int slot;
+            if (freeCount > 0) {
+                slot = free[--freeCount];
+            } else {
+                slot = slotCount++;
+                if (slot == slotIds.length) {
+                    int capacity = slotIds.length << 1;
+                    words = Arrays.copyOf(words, capacity << 2);
+                    slotIds = Arrays.copyOf(slotIds, capacity);
+                    next = Arrays.copyOf(next, capacity * blocks);
+                }
+            }
+
+            digest.writeTo(words, slot << 2);
+            slotIds[slot] = id;
+            ids.put(id, slot);
+            for (int b = 0; b < blocks; b++) {
+                long key = block(words[(slot << 2) + (b * blockBits >> 6)], b);
+                int head = heads[b].put(key, slot);
+                next[slot * blocks + b] = head;
+            }
+        }
+
+        boolean remove(long id) {
+            int slot = ids.remove(id);
+            if (slot == LongIntHashMap.MISSING) {
+                return false;
+            }
+
+            for (int b = 0; b < blocks; b++) {
+                long key = block(words[(slot << 2) + (b * blockBits >> 6)], b);
+                int after = next[slot * blocks + b];
+                int head = heads[b].get(key);
+                if (head == slot) {
+                    // unlink from the front of the chain
+                    if (after == LongIntHashMap.MISSING) {
+                        heads[b].remove(key);
+                    } else {
+                        heads[b].put(key, after);
+                    }
+                } else {
+                    // walk the chain to unlink from the middle
+                    int previous = head;
+                    while (next[previous * blocks + b] != slot) {
+                        previous = next[previous * blocks + b];
+                    }
+                    next[previous * blocks + b] = after;
+                }
+            }
+
+            if (freeCount == free.length) {
+                free = Arrays.copyOf(free, freeCount << 1);
+            }
+            free[freeCount++] = slot;
+            return true;
+        }
+    }
+
+    /**
+     * This class holds the ids and scores found by a lookup along with
+     * counters describing how much work the lookup took.
+     */
+    public static final class Result {
+
+        private long[] ids = new long[8];
+        private int[] scores = new int[8];
+        private int size;
+        private boolean exact;
+        private long probes;
+        private long candidates;
+
+        private Result() {
+        }
+
+        void add(long id, int score) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size << 1);
+                scores = Arrays.copyOf(scores, size << 1);
+            }
+            ids[size] = id;
+            scores[size] = score;
+            size++;
+        }
+
+        /**
+         * Return the number of matches.
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Return the id of the i'th match.
+         *
+         * @param i the match, between 0 and size() - 1
+         */
+        public long getId(int i) {
+            checkBounds(i);
+            return ids[i];
+        }
+
+        /**
+         * Return the compare score of the i'th match, between -127 and 128.
+         *
+         * @param i the match, between 0 and size() - 1
+         */
+        public int getScore(int i) {
+            checkBounds(i);
+            return scores[i];
+        }
+
+        /**
+         * Return true if every indexed digest at or above the threshold was
+         * guaranteed to be found, false if the threshold was below what the
+         * probe radius of the index covers.
+         */
+        public boolean isExact() {
+            return exact;
+        }
+
+        /**
+         * Return the number of hash table probes made by the lookup.
+         */
+        public long getProbes() {
+            return probes;
+        }
+
+        /**
+         * Return the number of distinct candidates verified with an exact
+         * compare by the lookup.
+         */
+        public long getCandidates() {
+            return candidates;
+        }
+
+        private void checkBounds(int i) {
+            if (i < 0 || i >= size) {
+                throw new IndexOutOfBoundsException("Match index " + i + " out of bounds for " + size + " matches");
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.nilsimsa;
+
+/**
+ * This interface receives instrumentation events from hashing and comparing,
+ * once installed with {@link NilsimsaMetrics#setListener(NilsimsaListener)}.
+ * It can bridge to any metrics system, or to flight recorder events on JDKs
+ * that have them. Methods are called on the thread doing the work, so
+ * implementations must be thread safe and fast.
+ */
+public interface NilsimsaListener {
+
+    /**
+     * Called after a block of input was hashed by one of the update methods
+     * of {@link Nilsimsa}. Streams, channels and files are reported one block
+     * at a time.
+     *
+     * @param bytes the number of bytes hashed
+     * @param nanos the time spent hashing them
+     */
+    void updated(long bytes, long nanos);
+
+    /**
+     * Called after a digest was produced in any of its forms.
+     *
+     * @param nanos the time spent producing it
+     */
+    void digested(long nanos);
+
+    /**
+     * Called after digests were compared. A single pair is too quick to time
+     * and is reported with a time of 0; scans over many candidates are timed
+     * as a whole.
+     *
+     * @param pairs the number of pairs compared
+     * @param nanos the time spent comparing them, or 0 for a single pair
+     */
+    void compared(long pairs, long nanos);
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.nilsimsa;
+
+import java.util.Arrays;
+
+/**
+ * This class holds the result of comparing a digest against many candidates
+ * as parallel arrays of candidate indexes and their compare scores.
+ */
+public final class NilsimsaMatches {
+
+    private int[] indexes;
+    private int[] scores;
+    private int size;
+
+    NilsimsaMatches(int capacity) {
+        indexes = new int[Math.max(capacity, 1)];
+        scores = new int[Math.max(capacity, 1)];
+    }
+
+    NilsimsaMatches(int[] indexes, int[] scores, int size) {
+        this.indexes = indexes;
+        this.scores = scores;
+        this.size = size;
+    }
+
+    void add(int index, int score) {
+        if (size == indexes.length) {
+            indexes = Arrays.copyOf(indexes, size << 1);
+            scores = Arrays.copyOf(scores, size << 1);
+        }
+        indexes[size] = index;
+        scores[size] = score;
+        size++;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    /**
+     * Sort the matches by index, which must be non-negative.
+     */
+    void sortByIndex() {
+        long[] packed = new long[size];
+        for (int i = 0; i < size; i++) {
+            packed[i] = ((long) indexes[i] << 32) | (scores[i] & 0xFFFFFFFFL);
+        }
+        Arrays.sort(packed);
+        for (int i = 0; i < size; i++) {
+            indexes[i] = (int) (packed[i] >>> 32);
+            scores[i] = (int) packed[i];
+        }
+    }
+
+    /**
+     * Return the number of matches.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Return the index of the i'th matching candidate.
+     *
+     * @param i the match, between 0 and size() - 1
+     */
+    public int getIndex(int i) {
+        checkBounds(i);
+        return indexes[i];
+    }
+
+    /**
+     * Return the compare score of the i'th matching candidate, between -127
+     * and 128.
+     *
+     * @param i the match, between 0 and size() - 1
+     */
+    public int getScore(int i) {
+        checkBounds(i);
+        return scores[i];
+    }
+
+    /**
+     * Return a copy of the indexes of all matching candidates.
+     */
+    public int[] getIndexes() {
+        return Arrays.copyOf(indexes, size);
+    }
+
+    /**
+     * Return a copy of the compare scores of all matching candidates.
+     */
+    public int[] getScores() {
+        return Arrays.copyOf(scores, size);
+    }
+
+    private void checkBounds(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Match index " + i + " out of bounds for " + size + " matches");
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder b = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                b.append(", ");
+            }
+            b.append(indexes[i]).append('=').append(scores[i]);
+        }
+        return b.append(']').toString();
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.nilsimsa;
+
+/**
+ * This class holds the {@link NilsimsaListener} that receives instrumentation
+ * events for the whole library. No listener is installed by default, and
+ * until one is, the only cost to hashing and comparing is reading a single
+ * field per call; no time is measured and nothing is allocated. To collect
+ * counts and histograms without writing a listener:
+ * <pre>
+ * NilsimsaStatistics statistics = new NilsimsaStatistics();
+ * NilsimsaMetrics.setListener(statistics);
+ * </pre>
+ */
+public final class NilsimsaMetrics {
+
+    static volatile NilsimsaListener listener;
+
+    private NilsimsaMetrics() {
+    }
+
+    /**
+     * Install the listener for all instrumentation events, replacing any
+     * previous one.
+     *
+     * @param listener the listener to install, or null to turn instrumentation off
+     */
+    public static void setListener(NilsimsaListener listener) {
+        NilsimsaMetrics.listener = listener;
+    }
+
+    /**
+     * Return the installed listener, or null when instrumentation is off.
+     */
+    public static NilsimsaListener getListener() {
+        return listener;
+    }
+}
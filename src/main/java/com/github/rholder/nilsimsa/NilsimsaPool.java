@@ -0,0 +1,64 @@
+/*
+ * Copyright 2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.nilsimsa;
+
+/**
+ * This class hands out one reusable {@link Nilsimsa} per thread, reset and
+ * ready for new data. Combined with {@link Nilsimsa#digestInto(long[], int)}
+ * or {@link Nilsimsa#toHexDigest(char[], int)}, hashing a message allocates
+ * nothing once a thread has its instance:
+ * <pre>
+ * long[] words = new long[4];
+ * POOL.get().update(message).digestInto(words, 0);
+ * </pre>
+ * An instance must not be kept or shared past the next call to
+ * {@link #get()} on the same thread.
+ */
+public class NilsimsaPool {
+
+    final int[] transitions;
+    private final ThreadLocal<Nilsimsa> instances = new ThreadLocal<Nilsimsa>() {
+        @Override
+        protected Nilsimsa initialValue() {
+            return new Nilsimsa(transitions);
+        }
+    };
+
+    /**
+     * Create a pool of instances using the default "53"-based transition
+     * table.
+     */
+    public NilsimsaPool() {
+        this(Nilsimsa.TRAN53);
+    }
+
+    /**
+     * Create a pool of instances using the given transition table.
+     *
+     * @param transitions the transition table to hash with
+     */
+    public NilsimsaPool(int[] transitions) {
+        this.transitions = NilsimsaTables.forTransitions(transitions).transitions;
+    }
+
+    /**
+     * Return the instance for the current thread after resetting it.
+     */
+    public Nilsimsa get() {
+        return instances.get().reset();
+    }
+}
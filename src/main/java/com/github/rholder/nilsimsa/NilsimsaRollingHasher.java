@@ -0,0 +1,173 @@
+/*
+ * Copyright 2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.nilsimsa;
+
+/**
+ * This class computes the Nilsimsa digest of a window of the last W bytes as
+ * it slides over the input, emitting a digest every k bytes. When a byte
+ * slides out of the window, the trigrams it formed with the up to 4 bytes
+ * after it are taken back out of the accumulators, the reverse of what
+ * {@link Nilsimsa#update(byte[])} does when they come in. Each byte therefore
+ * costs a constant amount of work no matter how wide the window is, and each
+ * emitted digest is exactly the digest of a fresh {@link Nilsimsa} run over
+ * the bytes of that window.
+ */
+public class NilsimsaRollingHasher {
+
+    /**
+     * This interface receives the digests emitted as the window slides.
+     */
+    public interface Listener {
+
+        /**
+         * Called with the digest of each full window whose start offset is a
+         * multiple of the step.
+         *
+         * @param offset the offset in the input of the first byte of the window
+         * @param digest the digest of the window
+         */
+        void digest(long offset, NilsimsaDigest digest);
+    }
+
+    private final NilsimsaTables tables;
+    private final int windowSize;
+    private final int step;
+    private final Listener listener;
+    private final int[] acc = new int[256];
+
+    // the last bytes seen, big enough to hold the window and the byte about to leave it
+    private final byte[] ring;
+    private final int mask;
+
+    // number of bytes seen so far, which is also the position of the next byte
+    private long position;
+
+    /**
+     * Create a rolling hasher using the default "53"-based transition table.
+     *
+     * @param windowSize the number of bytes in the window
+     * @param step the number of bytes the window slides between emitted digests
+     * @param listener receives the emitted digests
+     */
+    public NilsimsaRollingHasher(int windowSize, int step, Listener listener) {
+        this(Nilsimsa.TRAN53, windowSize, step, listener);
+    }
+
+    /**
+     * Create a rolling hasher using the given transition table.
+     *
+     * @param transitions the transition table to hash with
+     * @param windowSize the number of bytes in the window
+     * @param step the number of bytes the window slides between emitted digests
+     * @param listener receives the emitted digests
+     */
+    public NilsimsaRollingHasher(int[] transitions, int windowSize, int step, Listener listener) {
+        if (windowSize < 1 || windowSize > (1 << 29)) {
+            // the ring holds the window and one more byte, rounded up to a power of 2
+            throw new IllegalArgumentException("Window size must be between 1 and 2^29, found " + windowSize);
+        }
+        if (step < 1) {
+            throw new IllegalArgumentException("Step must be positive, found " + step);
+        }
+        this.tables = NilsimsaTables.forTransitions(transitions);
+        this.windowSize = windowSize;
+        this.step = step;
+        this.listener = listener;
+        this.ring = new byte[Integer.highestOneBit(windowSize) << 1];
+        this.mask = ring.length - 1;
+    }
+
+    /**
+     * Slide the window over the given bytes.
+     *
+     * @param data input for the hash
+     * @return this instance for chaining
+     */
+    public NilsimsaRollingHasher update(byte[] data) {
+        return update(data, 0, data.length);
+    }
+
+    /**
+     * Slide the window over the given range of bytes.
+     *
+     * @param data input for the hash
+     * @param offset index of the first byte to hash
+     * @param length number of bytes to hash
+     * @return this instance for chaining
+     */
+    public NilsimsaRollingHasher update(byte[] data, int offset, int length) {
+        if (offset < 0 || length < 0 || offset > data.length - length) {
+            throw new IndexOutOfBoundsException("Range [" + offset + ", " + offset + " + " + length
+                    + ") out of bounds for length " + data.length);
+        }
+        for (int i = offset; i < offset + length; i++) {
+            long p = position;
+            long start = p - windowSize + 1;
+            if (start > 0) {
+                // the byte at start - 1 leaves, so the trigrams of the next 4 bytes that used it go too
+                long end = Math.min(start + 3, p - 1);
+                for (long j = start; j <= end; j++) {
+                    contribute(j, start - 1, -1);
+                    contribute(j, start, 1);
+                }
+            }
+
+            ring[(int) p & mask] = data[i];
+            position++;
+            long first = Math.max(start, 0);
+            if (p - first >= 4) {
+                // a full window of 4 previous bytes, no branching needed
+                tables.update(acc, data[i] & 0xFF, at(p - 1), at(p - 2), at(p - 3), at(p - 4));
+            } else {
+                contribute(p, first, 1);
+            }
+
+            if (start >= 0 && start % step == 0) {
+                listener.digest(start, digest());
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Return the digest of the bytes currently in the window, which may hold
+     * fewer than the window size at the start of the input.
+     */
+    public NilsimsaDigest digest() {
+        return NilsimsaDigest.fromAccumulator(acc, Nilsimsa.threshold(Math.min(position, windowSize)));
+    }
+
+    /**
+     * Return the number of bytes seen so far.
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Add delta to the accumulators for the trigrams of the byte at position j
+     * that only use bytes at or after position start.
+     */
+    private void contribute(long j, long start, int delta) {
+        tables.update(acc, delta, at(j), j - 1 >= start ? at(j - 1) : -1, j - 2 >= start ? at(j - 2) : -1,
+                j - 3 >= start ? at(j - 3) : -1, j - 4 >= start ? at(j - 4) : -1);
+    }
+
+    private int at(long j) {
+        return ring[(int) j & mask] & 0xFF;
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright 2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.nilsimsa;
+
+import java.util.Collection;
+
+/**
+ * This class compares a single query digest against many candidate digests
+ * packed into a long[], 4 words per digest in the layout of
+ * {@link NilsimsaDigest#writeTo(long[], int)}. Candidate i occupies indexes
+ * 4 * i to 4 * i + 3. Scanning reads the packed array sequentially and does
+ * not allocate anything per candidate.
+ */
+public final class NilsimsaScanner {
+
+    // candidates per block in a many-to-many scan, 8 KB of packed words
+    private static final int BLOCK_SIZE = 256;
+
+    private NilsimsaScanner() {
+    }
+
+    /**
+     * Return the given digests packed into a single array, 4 words per
+     * digest, in iteration order.
+     *
+     * @param digests the digests to pack
+     */
+    public static long[] pack(Collection<NilsimsaDigest> digests) {
+        long[] packed = new long[digests.size() * 4];
+        int offset = 0;
+        for (NilsimsaDigest digest : digests) {
+            digest.writeTo(packed, offset);
+            offset += 4;
+        }
+        return packed;
+    }
+
+    /**
+     * Write the compare score of the query against every candidate to dest,
+     * starting at the given offset, one score per candidate in index order.
+     * Each score is the same as {@link Nilsimsa#compare(int[], int[])} for the
+     * two digests. Unlike {@link #threshold(NilsimsaDigest, long[], int)}
+     * there is no early exit, so the loop has no data-dependent branches and
+     * handles two candidates per iteration; {@link Long#bitCount(long)} is
+     * compiled to a single popcount instruction on CPUs that have one.
+     *
+     * @param query the digest to compare against each candidate
+     * @param candidates digests packed 4 words each
+     * @param dest the array to hold the scores
+     * @param offset the index in dest for the score of the first candidate
+     */
+    public static void scores(NilsimsaDigest query, long[] candidates, int[] dest, int offset) {
+        checkPacked(candidates);
+        int count = candidates.length >> 2;
+        if (offset < 0 || offset > dest.length - count) {
+            throw new IndexOutOfBoundsException("Cannot write " + count + " scores at offset " + offset
+                    + " into an array of length " + dest.length);
+        }
+        long start = startScan();
+        scores(query.getWord(0), query.getWord(1), query.getWord(2), query.getWord(3),
+                candidates, 0, count, dest, offset);
+        scanned(count, start);
+    }
+
+    /**
+     * Write the compare score of every query against every candidate to a new
+     * array, row by row, so the score of query q against candidate c is at
+     * index q * candidateCount + c. Candidates are visited in blocks small
+     * enough to stay in the L1 cache while all queries are compared against
+     * them.
+     *
+     * @param queries digests packed 4 words each
+     * @param candidates digests packed 4 words each
+     * @return the scores of all pairs
+     */
+    public static int[] scores(long[] queries, long[] candidates) {
+        checkPacked(queries);
+        checkPacked(candidates);
+        int queryCount = queries.length >> 2;
+        int candidateCount = candidates.length >> 2;
+        if ((long) queryCount * candidateCount > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many pairs for one array: " + queryCount + " x " + candidateCount);
+        }
+        int[] dest = new int[queryCount * candidateCount];
+        long start = startScan();
+        for (int block = 0; block < candidateCount; block += BLOCK_SIZE) {
+            int length = Math.min(BLOCK_SIZE, candidateCount - block);
+            for (int q = 0, o = 0; q < queryCount; q++, o += 4) {
+                scores(queries[o], queries[o + 1], queries[o + 2], queries[o + 3],
+                        candidates, block, length, dest, q * candidateCount + block);
+            }
+        }
+        scanned(dest.length, start);
+        return dest;
+    }
+
+    /**
+     * Write the scores of count candidates starting at candidate first
+     * against the query words to dest.
+     */
+    private static void scores(long q0, long q1, long q2, long q3, long[] candidates, int first, int count,
+                               int[] dest, int offset) {
+        int o = first << 2;
+        int d = offset;
+        int end = offset + (count & ~1);
+        for (; d < end; d += 2, o += 8) {
+            dest[d] = 128 - (Long.bitCount(q0 ^ candidates[o])
+                    + Long.bitCount(q1 ^ candidates[o + 1])
+                    + Long.bitCount(q2 ^ candidates[o + 2])
+                    + Long.bitCount(q3 ^ candidates[o + 3]));
+            dest[d + 1] = 128 - (Long.bitCount(q0 ^ candidates[o + 4])
+                    + Long.bitCount(q1 ^ candidates[o + 5])
+                    + Long.bitCount(q2 ^ candidates[o + 6])
+                    + Long.bitCount(q3 ^ candidates[o + 7]));
+        }
+        if ((count & 1) != 0) {
+            dest[d] = 128 - (Long.bitCount(q0 ^ candidates[o])
+                    + Long.bitCount(q1 ^ candidates[o + 1])
+                    + Long.bitCount(q2 ^ candidates[o + 2])
+                    + Long.bitCount(q3 ^ candidates[o + 3]));
+        }
+    }
+
+    /**
+     * Return all candidates that compare to the query with a score of at
+     * least the given threshold, in index order. A candidate is skipped as
+     * soon as the first half of its bits already differ too much to reach the
+     * threshold.
+     *
+     * @param query the digest to compare against each candidate
+     * @param candidates digests packed 4 words each
+     * @param threshold the minimum compare score, between -127 and 128
+     * @return the matching candidates and their scores
+     */
+    public static NilsimsaMatches threshold(NilsimsaDigest query, long[] candidates, int threshold) {
+        checkPacked(candidates);
+        NilsimsaMatches matches = new NilsimsaMatches(16);
+
+        // the most bits that can differ and still reach the threshold
+        int maxDistance = 128 - threshold;
+        if (maxDistance < 0) {
+            return matches;
+        }
+
+        long start = startScan();
+        final long q0 = query.getWord(0);
+        final long q1 = query.getWord(1);
+        final long q2 = query.getWord(2);
+        final long q3 = query.getWord(3);
+        final int length = candidates.length;
+        for (int i = 0, o = 0; o < length; i++, o += 4) {
+            int bits = Long.bitCount(q0 ^ candidates[o]) + Long.bitCount(q1 ^ candidates[o + 1]);
+            if (bits > maxDistance) {
+                continue;
+            }
+            bits += Long.bitCount(q2 ^ candidates[o + 2]) + Long.bitCount(q3 ^ candidates[o + 3]);
+            if (bits <= maxDistance) {
+                matches.add(i, 128 - bits);
+            }
+        }
+        scanned(length >> 2, start);
+        return matches;
+    }
+
+    /**
+     * Return the k candidates with the highest compare score against the
+     * query, ordered from highest score to lowest. Ties go to the lower
+     * index.
+     *
+     * @param query the digest to compare against each candidate
+     * @param candidates digests packed 4 words each
+     * @param k the maximum number of candidates to return
+     * @return the best matching candidates and their scores
+     */
+    public static NilsimsaMatches topK(NilsimsaDigest query, long[] candidates, int k) {
+        return topK(query, candidates, k, -128);
+    }
+
+    /**
+     * Return up to k candidates with the highest compare score against the
+     * query that also have a score of at least the given threshold, ordered
+     * from highest score to lowest. Ties go to the lower index. The k best
+     * seen so far are kept in a bounded min-heap and once it is full, a
+     * candidate is skipped as soon as it can no longer beat the worst of
+     * them.
+     *
+     * @param query the digest to compare against each candidate
+     * @param candidates digests packed 4 words each
+     * @param k the maximum number of candidates to return
+     * @param threshold the minimum compare score, between -127 and 128
+     * @return the best matching candidates and their scores
+     */
+    public static NilsimsaMatches topK(NilsimsaDigest query, long[] candidates, int k, int threshold) {
+        checkPacked(candidates);
+        if (k < 0) {
+            throw new IllegalArgumentException("k must not be negative, found " + k);
+        }
+
+        // min-heap of the best k, the worst of them at the root
+        k = Math.min(k, candidates.length / 4);
+        int[] heapIndexes = new int[k];
+        int[] heapScores = new int[k];
+        int size = 0;
+
+        int maxDistance = 128 - threshold;
+        if (k == 0 || maxDistance < 0) {
+            return new NilsimsaMatches(heapIndexes, heapScores, 0);
+        }
+
+        long start = startScan();
+        final long q0 = query.getWord(0);
+        final long q1 = query.getWord(1);
+        final long q2 = query.getWord(2);
+        final long q3 = query.getWord(3);
+        final int length = candidates.length;
+        for (int i = 0, o = 0; o < length; i++, o += 4) {
+            int bits = Long.bitCount(q0 ^ candidates[o]) + Long.bitCount(q1 ^ candidates[o + 1]);
+            if (bits > maxDistance) {
+                continue;
+            }
+            bits += Long.bitCount(q2 ^ candidates[o + 2]) + Long.bitCount(q3 ^ candidates[o + 3]);
+            if (bits > maxDistance) {
+                continue;
+            }
+
+            size = offer(heapIndexes, heapScores, size, i, 128 - bits);
+            if (size == k) {
+                // from now on only a strictly higher score than the root is interesting
+                maxDistance = Math.min(maxDistance, 127 - heapScores[0]);
+            }
+        }
+
+        sortHeap(heapIndexes, heapScores, size);
+        scanned(length >> 2, start);
+        return new NilsimsaMatches(heapIndexes, heapScores, size);
+    }
+
+    /**
+     * Offer a match to a bounded min-heap of the best matches so far, whose
+     * capacity is the length of its arrays, and return its new size. Once
+     * full, the match replaces the worst one only when it ranks above it.
+     */
+    static int offer(int[] heapIndexes, int[] heapScores, int size, int index, int score) {
+        if (size < heapIndexes.length) {
+            // sift up the new entry
+            int child = size++;
+            while (child > 0) {
+                int parent = (child - 1) >> 1;
+                if (!worse(score, index, heapScores[parent], heapIndexes[parent])) {
+                    break;
+                }
+                heapScores[child] = heapScores[parent];
+                heapIndexes[child] = heapIndexes[parent];
+                child = parent;
+            }
+            heapScores[child] = score;
+            heapIndexes[child] = index;
+        } else if (size > 0 && worse(heapScores[0], heapIndexes[0], score, index)) {
+            siftDown(heapIndexes, heapScores, size, index, score);
+        }
+        return size;
+    }
+
+    /**
+     * Repeatedly move the worst remaining entry of the heap to the end,
+     * leaving the first size entries sorted best first.
+     */
+    static void sortHeap(int[] heapIndexes, int[] heapScores, int size) {
+        for (int end = size - 1; end > 0; end--) {
+            int index = heapIndexes[0];
+            int score = heapScores[0];
+            siftDown(heapIndexes, heapScores, end, heapIndexes[end], heapScores[end]);
+            heapIndexes[end] = index;
+            heapScores[end] = score;
+        }
+    }
+
+    /**
+     * Replace the root of the heap with the given entry and restore the heap
+     * property over the first size entries.
+     */
+    private static void siftDown(int[] heapIndexes, int[] heapScores, int size, int index, int score) {
+        int parent = 0;
+        while (true) {
+            int child = (parent << 1) + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && worse(heapScores[child + 1], heapIndexes[child + 1], heapScores[child], heapIndexes[child])) {
+                child++;
+            }
+            if (!worse(heapScores[child], heapIndexes[child], score, index)) {
+                break;
+            }
+            heapScores[parent] = heapScores[child];
+            heapIndexes[parent] = heapIndexes[child];
+            parent = child;
+        }
+        heapScores[parent] = score;
+        heapIndexes[parent] = index;
+    }
+
+    /**
+     * Return true when the first match ranks below the second, meaning it has
+     * a lower score, or the same score and a higher index.
+     */
+    private static boolean worse(int score1, int index1, int score2, int index2) {
+        return score1 < score2 || (score1 == score2 && index1 > index2);
+    }
+
+    /**
+     * Return the start time of a scan when a listener is installed, or 0 to
+     * skip timing it.
+     */
+    static long startScan() {
+        return NilsimsaMetrics.listener == null ? 0 : System.nanoTime();
+    }
+
+    /**
+     * Report a scan over the given number of pairs that began at start to the
+     * installed listener, unless it was not timed.
+     */
+    static void scanned(long pairs, long start) {
+        NilsimsaListener listener = NilsimsaMetrics.listener;
+        if (listener != null && start != 0) {
+            listener.compared(pairs, System.nanoTime() - start);
+        }
+    }
+
+    private static void checkPacked(long[] candidates) {
+        if ((candidates.length & 3) != 0) {
+            throw new IllegalArgumentException("Packed digests must contain a multiple of 4 words, found " + candidates.length);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.nilsimsa;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * This class is an immutable signature of a document made by
+ * {@link NilsimsaChunker}, holding a Nilsimsa digest and the length of each
+ * of its content-defined chunks in order. Where a single digest of a large
+ * document barely moves when a small payload is embedded in it, the chunks
+ * of the payload show up nearly unchanged in the document's signature, which
+ * {@link #containment(NilsimsaSignature, int)} measures.
+ * <p>
+ * The compact form from {@link #toBytes()} takes 4 bytes for the number of
+ * chunks and 36 bytes per chunk.
+ */
+public final class NilsimsaSignature {
+
+    private static final int CHUNK_BYTES = 4 + NilsimsaCodec.RAW_LENGTH;
+
+    private final long[] digests;
+    private final int[] lengths;
+
+    NilsimsaSignature(long[] digests, int[] lengths) {
+        this.digests = digests;
+        this.lengths = lengths;
+    }
+
+    /**
+     * Return a signature from its compact form.
+     *
+     * @param bytes a signature as returned by {@link #toBytes()}
+     */
+    public static NilsimsaSignature fromBytes(byte[] bytes) {
+        if (bytes.length < 4 || (bytes.length - 4) % CHUNK_BYTES != 0) {
+            throw new IllegalArgumentException("Signature must be 4 bytes plus " + CHUNK_BYTES
+                    + " per chunk, found " + bytes.length + " bytes");
+        }
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        int chunks = in.getInt();
+        if (chunks != (bytes.length - 4) / CHUNK_BYTES) {
+            throw new IllegalArgumentException("Signature holds " + (bytes.length - 4) / CHUNK_BYTES
+                    + " chunks but claims " + chunks);
+        }
+        long[] digests = new long[chunks << 2];
+        int[] lengths = new int[chunks];
+        for (int i = 0; i < chunks; i++) {
+            lengths[i] = in.getInt();
+            if (lengths[i] < 1) {
+                throw new IllegalArgumentException("Chunk " + i + " must have a positive length, found " + lengths[i]);
+            }
+            for (int w = 0; w < 4; w++) {
+                digests[(i << 2) + w] = in.getLong();
+            }
+        }
+        return new NilsimsaSignature(digests, lengths);
+    }
+
+    /**
+     * Return this signature in its compact form.
+     */
+    public byte[] toBytes() {
+        ByteBuffer out = ByteBuffer.allocate(4 + lengths.length * CHUNK_BYTES);
+        out.putInt(lengths.length);
+        for (int i = 0; i < lengths.length; i++) {
+            out.putInt(lengths[i]);
+            for (int w = 0; w < 4; w++) {
+                out.putLong(digests[(i << 2) + w]);
+            }
+        }
+        return out.array();
+    }
+
+    /**
+     * Return the number of chunks.
+     */
+    public int size() {
+        return lengths.length;
+    }
+
+    /**
+     * Return the digest of the given chunk.
+     *
+     * @param index the chunk, between 0 - size() - 1
+     */
+    public NilsimsaDigest getDigest(int index) {
+        checkIndex(index);
+        return NilsimsaDigest.fromLongs(digests, index << 2);
+    }
+
+    /**
+     * Return the number of bytes in the given chunk.
+     *
+     * @param index the chunk, between 0 - size() - 1
+     */
+    public int getLength(int index) {
+        checkIndex(index);
+        return lengths[index];
+    }
+
+    /**
+     * Return the number of bytes in the document.
+     */
+    public long getTotalLength() {
+        long total = 0;
+        for (int length : lengths) {
+            total += length;
+        }
+        return total;
+    }
+
+    /**
+     * Return the best score of each chunk of this signature against any chunk
+     * of other, or -128 for every chunk if other is empty.
+     *
+     * @param other the signature to compare against
+     * @return a score between -127 and 128 per chunk of this signature
+     */
+    public int[] bestScores(NilsimsaSignature other) {
+        long start = NilsimsaScanner.startScan();
+        final long[] candidates = other.digests;
+        final int words = candidates.length;
+        int[] scores = new int[lengths.length];
+        for (int i = 0; i < scores.length; i++) {
+            long a0 = digests[i << 2];
+            long a1 = digests[(i << 2) + 1];
+            long a2 = digests[(i << 2) + 2];
+            long a3 = digests[(i << 2) + 3];
+            int best = 256 + 128;
+            for (int j = 0; j < words; j += 4) {
+                int distance = Long.bitCount(a0 ^ candidates[j])
+                        + Long.bitCount(a1 ^ candidates[j + 1])
+                        + Long.bitCount(a2 ^ candidates[j + 2])
+                        + Long.bitCount(a3 ^ candidates[j + 3]);
+                if (distance < best) {
+                    best = distance;
+                    if (distance == 0) {
+                        break;
+                    }
+                }
+            }
+            scores[i] = Math.max(128 - best, -128);
+        }
+        NilsimsaScanner.scanned((long) scores.length * other.size(), start);
+        return scores;
+    }
+
+    /**
+     * Return the fraction of the chunks of this signature that have a match
+     * in other scoring at least the threshold, from 0 when none do to 1 when
+     * this document appears to be contained in the other. An empty signature
+     * is contained in nothing.
+     *
+     * @param other the signature that may contain this one
+     * @param threshold the lowest score that counts as a match, between -127 and 128
+     */
+    public double containment(NilsimsaSignature other, int threshold) {
+        if (lengths.length == 0) {
+            return 0;
+        }
+        int matched = 0;
+        for (int score : bestScores(other)) {
+            if (score >= threshold) {
+                matched++;
+            }
+        }
+        return (double) matched / lengths.length;
+    }
+
+    /**
+     * Return the larger of the containment of this signature in other and of
+     * other in this one, which is high when either document holds most of
+     * the other.
+     *
+     * @param other the signature to compare against
+     * @param threshold the lowest score that counts as a match, between -127 and 128
+     */
+    public double similarity(NilsimsaSignature other, int threshold) {
+        return Math.max(containment(other, threshold), other.containment(this, threshold));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof NilsimsaSignature)) {
+            return false;
+        }
+        NilsimsaSignature other = (NilsimsaSignature) o;
+        return Arrays.equals(lengths, other.lengths) && Arrays.equals(digests, other.digests);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(lengths) + Arrays.hashCode(digests);
+    }
+
+    @Override
+    public String toString() {
+        return "NilsimsaSignature{chunks=" + lengths.length + ", length=" + getTotalLength() + "}";
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= lengths.length) {
+            throw new IndexOutOfBoundsException("Chunk index " + index + " out of bounds for size " + lengths.length);
+        }
+    }
+}
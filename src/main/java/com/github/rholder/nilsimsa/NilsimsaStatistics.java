@@ -0,0 +1,218 @@
+/*
+ * Copyright 2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.nilsimsa;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class is a {@link NilsimsaListener} that keeps running counters and
+ * histograms of everything reported to it. It is thread safe and never
+ * blocks, and can be read at any time while it is being updated.
+ */
+public class NilsimsaStatistics implements NilsimsaListener {
+
+    private final AtomicLong bytesHashed = new AtomicLong();
+    private final AtomicLong digests = new AtomicLong();
+    private final AtomicLong compares = new AtomicLong();
+    private final Histogram updateSizes = new Histogram();
+    private final Histogram updateNanos = new Histogram();
+    private final Histogram digestNanos = new Histogram();
+    private final Histogram scanNanos = new Histogram();
+
+    @Override
+    public void updated(long bytes, long nanos) {
+        bytesHashed.addAndGet(bytes);
+        updateSizes.record(bytes);
+        updateNanos.record(nanos);
+    }
+
+    @Override
+    public void digested(long nanos) {
+        digests.incrementAndGet();
+        digestNanos.record(nanos);
+    }
+
+    @Override
+    public void compared(long pairs, long nanos) {
+        compares.addAndGet(pairs);
+        if (nanos > 0) {
+            scanNanos.record(nanos);
+        }
+    }
+
+    /**
+     * Return the total number of bytes hashed.
+     */
+    public long getBytesHashed() {
+        return bytesHashed.get();
+    }
+
+    /**
+     * Return the total number of digests produced.
+     */
+    public long getDigests() {
+        return digests.get();
+    }
+
+    /**
+     * Return the total number of digest pairs compared.
+     */
+    public long getCompares() {
+        return compares.get();
+    }
+
+    /**
+     * Return the histogram of the number of bytes per update call.
+     */
+    public Histogram getUpdateSizes() {
+        return updateSizes;
+    }
+
+    /**
+     * Return the histogram of the time in nanoseconds per update call.
+     */
+    public Histogram getUpdateNanos() {
+        return updateNanos;
+    }
+
+    /**
+     * Return the histogram of the time in nanoseconds per digest.
+     */
+    public Histogram getDigestNanos() {
+        return digestNanos;
+    }
+
+    /**
+     * Return the histogram of the time in nanoseconds per scan over many
+     * candidates.
+     */
+    public Histogram getScanNanos() {
+        return scanNanos;
+    }
+
+    /**
+     * Clear all counters and histograms.
+     */
+    public void reset() {
+        bytesHashed.set(0);
+        digests.set(0);
+        compares.set(0);
+        updateSizes.reset();
+        updateNanos.reset();
+        digestNanos.reset();
+        scanNanos.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "NilsimsaStatistics{bytesHashed=" + getBytesHashed() + ", digests=" + getDigests()
+                + ", compares=" + getCompares() + ", updateSizes=" + updateSizes + ", updateNanos=" + updateNanos
+                + ", digestNanos=" + digestNanos + ", scanNanos=" + scanNanos + '}';
+    }
+
+    /**
+     * This class is a histogram of non-negative values with one bucket per
+     * power of two. Bucket 0 counts the value 0 and bucket b counts values
+     * from 2^(b - 1) to 2^b - 1, so recording a value is a single atomic
+     * increment and the reported percentiles are exact to within a factor of
+     * two.
+     */
+    public static final class Histogram {
+
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+        private final AtomicLong max = new AtomicLong();
+
+        Histogram() {
+        }
+
+        void record(long value) {
+            if (value < 0) {
+                value = 0;
+            }
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(value));
+            long current;
+            while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+                // retry until the larger value sticks
+            }
+        }
+
+        void reset() {
+            for (int b = 0; b < buckets.length(); b++) {
+                buckets.set(b, 0);
+            }
+            max.set(0);
+        }
+
+        /**
+         * Return the number of values recorded.
+         */
+        public long getCount() {
+            long count = 0;
+            for (int b = 0; b < buckets.length(); b++) {
+                count += buckets.get(b);
+            }
+            return count;
+        }
+
+        /**
+         * Return the largest value recorded, or 0 when there are none.
+         */
+        public long getMax() {
+            return max.get();
+        }
+
+        /**
+         * Return the number of values recorded in the given bucket.
+         *
+         * @param bucket the bucket, between 0 - 63
+         */
+        public long getBucketCount(int bucket) {
+            return buckets.get(bucket);
+        }
+
+        /**
+         * Return an upper bound on the given percentile of the recorded
+         * values: the largest value of the bucket that holds it, capped at
+         * the largest value recorded.
+         *
+         * @param percentile the percentile, between 0 - 100
+         */
+        public long getPercentile(double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("Percentile must be between 0 - 100, found " + percentile);
+            }
+            long count = getCount();
+            long rank = (long) Math.ceil(count * percentile / 100);
+            long seen = 0;
+            for (int b = 0; b < buckets.length(); b++) {
+                seen += buckets.get(b);
+                if (seen >= rank && seen > 0) {
+                    long upper = b == 0 ? 0 : (1L << b) - 1;
+                    return Math.min(upper, getMax());
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            return "{count=" + getCount() + ", p50=" + getPercentile(50) + ", p99=" + getPercentile(99)
+                    + ", max=" + getMax() + '}';
+        }
+    }
+}
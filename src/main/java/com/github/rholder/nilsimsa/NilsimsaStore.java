@@ -0,0 +1,219 @@
+/*
+ * Copyright 2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.nilsimsa;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * This class provides read-only access to a file of digests written by
+ * {@link NilsimsaStoreWriter}. The file is memory-mapped, so opening it is
+ * instant regardless of size and the digests live off-heap. Compares read the
+ * digest words straight from the mapped buffer.
+ * <p>
+ * The file starts with a 16 byte big-endian header: the magic number
+ * "NLSM", a 16-bit version, 16 bits of flags, the id of the transition table
+ * from {@link Nilsimsa#transitionsId(int[])}, and 4 reserved bytes. Then
+ * follow fixed-width records of a digest as 4 big-endian longs in hex digest
+ * order, each followed by a 64-bit external id when the ids flag is set. A
+ * file larger than 2 GB is mapped in several segments, each holding a whole
+ * number of records.
+ */
+public class NilsimsaStore implements Closeable {
+
+    static final int MAGIC = 0x4E4C534D;
+    static final int VERSION = 1;
+    static final int FLAG_IDS = 1;
+    static final int HEADER_SIZE = 16;
+
+    private final RandomAccessFile file;
+    private final boolean withIds;
+    private final int transitionsId;
+    private final int recordSize;
+    private final int recordsPerSegment;
+    private final long size;
+    private final ByteBuffer[] segments;
+
+    /**
+     * Open and map the given store file.
+     *
+     * @param file the file to open
+     * @throws IOException if the file could not be read or is not a store
+     */
+    public NilsimsaStore(File file) throws IOException {
+        this(file, Integer.MAX_VALUE);
+    }
+
+    NilsimsaStore(File file, int maxSegmentSize) throws IOException {
+        this.file = new RandomAccessFile(file, "r");
+        try {
+            if (this.file.length() < HEADER_SIZE || this.file.readInt() != MAGIC) {
+                throw new IOException("Not a Nilsimsa store: " + file);
+            }
+            int version = this.file.readUnsignedShort();
+            if (version != VERSION) {
+                throw new IOException("Unsupported Nilsimsa store version " + version + ": " + file);
+            }
+            withIds = (this.file.readUnsignedShort() & FLAG_IDS) != 0;
+            transitionsId = this.file.readInt();
+            recordSize = withIds ? 40 : 32;
+
+            // a partially written trailing record is ignored
+            size = (this.file.length() - HEADER_SIZE) / recordSize;
+            recordsPerSegment = maxSegmentSize / recordSize;
+
+            FileChannel channel = this.file.getChannel();
+            segments = new ByteBuffer[(int) ((size + recordsPerSegment - 1) / recordsPerSegment)];
+            for (int i = 0; i < segments.length; i++) {
+                long first = (long) i * recordsPerSegment;
+                long records = Math.min(recordsPerSegment, size - first);
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + first * recordSize, records * recordSize);
+            }
+        } catch (IOException e) {
+            this.file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Return the number of digests in the store.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Return true if each digest in the store has an external id.
+     */
+    public boolean hasIds() {
+        return withIds;
+    }
+
+    /**
+     * Return the id of the transition table the digests were computed with,
+     * from {@link Nilsimsa#transitionsId(int[])}.
+     */
+    public int getTransitionsId() {
+        return transitionsId;
+    }
+
+    /**
+     * Return the digest at the given index.
+     *
+     * @param index the index of the digest, between 0 and size() - 1
+     */
+    public NilsimsaDigest getDigest(long index) {
+        ByteBuffer segment = segment(index);
+        int offset = offset(index);
+        return new NilsimsaDigest(segment.getLong(offset), segment.getLong(offset + 8),
+                segment.getLong(offset + 16), segment.getLong(offset + 24));
+    }
+
+    /**
+     * Return the external id of the digest at the given index.
+     *
+     * @param index the index of the digest, between 0 and size() - 1
+     */
+    public long getId(long index) {
+        if (!withIds) {
+            throw new IllegalStateException("This store does not hold ids");
+        }
+        return segment(index).getLong(offset(index) + 32);
+    }
+
+    /**
+     * Compare the digest at the given index to the query without creating
+     * any objects, the same as {@link NilsimsaDigest#compare(NilsimsaDigest)}.
+     *
+     * @param index the index of the digest, between 0 and size() - 1
+     * @param query the digest to compare
+     * @return a value between -127 and 128, from least similar to most
+     */
+    public int compare(long index, NilsimsaDigest query) {
+        ByteBuffer segment = segment(index);
+        int offset = offset(index);
+        return 128 - (Long.bitCount(segment.getLong(offset) ^ query.getWord(0))
+                + Long.bitCount(segment.getLong(offset + 8) ^ query.getWord(1))
+                + Long.bitCount(segment.getLong(offset + 16) ^ query.getWord(2))
+                + Long.bitCount(segment.getLong(offset + 24) ^ query.getWord(3)));
+    }
+
+    /**
+     * Return the indexes of all digests in the store that compare to the
+     * query with a score of at least the given threshold, in index order.
+     *
+     * @param query the digest to compare against each stored digest
+     * @param threshold the minimum compare score, between -127 and 128
+     * @return the matching indexes and their scores
+     */
+    public NilsimsaMatches threshold(NilsimsaDigest query, int threshold) {
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Too many digests to report as matches: " + size);
+        }
+        NilsimsaMatches matches = new NilsimsaMatches(16);
+        int maxDistance = 128 - threshold;
+        if (maxDistance < 0) {
+            return matches;
+        }
+
+        final long q0 = query.getWord(0);
+        final long q1 = query.getWord(1);
+        final long q2 = query.getWord(2);
+        final long q3 = query.getWord(3);
+        long start = NilsimsaScanner.startScan();
+        int index = 0;
+        for (ByteBuffer segment : segments) {
+            int end = segment.limit();
+            for (int offset = 0; offset < end; offset += recordSize, index++) {
+                int bits = Long.bitCount(q0 ^ segment.getLong(offset)) + Long.bitCount(q1 ^ segment.getLong(offset + 8));
+                if (bits > maxDistance) {
+                    continue;
+                }
+                bits += Long.bitCount(q2 ^ segment.getLong(offset + 16)) + Long.bitCount(q3 ^ segment.getLong(offset + 24));
+                if (bits <= maxDistance) {
+                    matches.add(index, 128 - bits);
+                }
+            }
+        }
+        NilsimsaScanner.scanned(size, start);
+        return matches;
+    }
+
+    private ByteBuffer segment(long index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Digest index " + index + " out of bounds for " + size + " digests");
+        }
+        return segments[(int) (index / recordsPerSegment)];
+    }
+
+    private int offset(long index) {
+        return (int) (index % recordsPerSegment) * recordSize;
+    }
+
+    /**
+     * Close the underlying file. The mapped segments are released by the
+     * garbage collector once they are no longer referenced.
+     */
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.nilsimsa;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * This class writes digests to a new file in the binary format read by
+ * {@link NilsimsaStore}, buffering the writes.
+ */
+public class NilsimsaStoreWriter implements Closeable {
+
+    private final DataOutputStream out;
+    private final boolean withIds;
+    private long count;
+
+    /**
+     * Create a new store file, replacing any existing file, for digests
+     * computed with the given transition table.
+     *
+     * @param file the file to write
+     * @param transitions the transition table the digests were computed with
+     * @param withIds true to store a 64-bit external id with each digest
+     * @throws IOException if the file could not be created
+     */
+    public NilsimsaStoreWriter(File file, int[] transitions, boolean withIds) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+        this.withIds = withIds;
+
+        out.writeInt(NilsimsaStore.MAGIC);
+        out.writeShort(NilsimsaStore.VERSION);
+        out.writeShort(withIds ? NilsimsaStore.FLAG_IDS : 0);
+        out.writeInt(Nilsimsa.transitionsId(transitions));
+        out.writeInt(0);
+    }
+
+    /**
+     * Append a digest to a store without ids.
+     *
+     * @param digest the digest to append
+     * @throws IOException if the digest could not be written
+     */
+    public void append(NilsimsaDigest digest) throws IOException {
+        if (withIds) {
+            throw new IllegalStateException("This store requires an id for each digest");
+        }
+        writeDigest(digest);
+    }
+
+    /**
+     * Append a digest and its external id to a store with ids.
+     *
+     * @param digest the digest to append
+     * @param id the external id of the digest
+     * @throws IOException if the digest could not be written
+     */
+    public void append(NilsimsaDigest digest, long id) throws IOException {
+        if (!withIds) {
+            throw new IllegalStateException("This store does not hold ids");
+        }
+        writeDigest(digest);
+        out.writeLong(id);
+    }
+
+    private void writeDigest(NilsimsaDigest digest) throws IOException {
+        out.writeLong(digest.getWord(0));
+        out.writeLong(digest.getWord(1));
+        out.writeLong(digest.getWord(2));
+        out.writeLong(digest.getWord(3));
+        count++;
+    }
+
+    /**
+     * Return the number of digests appended so far.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Write out any buffered digests.
+     *
+     * @throws IOException if the digests could not be written
+     */
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright 2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.nilsimsa;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * This class hashes a message that arrives as a stream of buffers, for
+ * non-blocking servers that should neither block nor collect a whole message
+ * before hashing it. It follows the subscriber side of the Reactive Streams
+ * protocol: the publisher calls {@link #onSubscribe(Subscription)}, then
+ * {@link #onNext(ByteBuffer)} for each chunk and finally
+ * {@link #onComplete()} or {@link #onError(Throwable)}. The signals map one
+ * to one onto those of {@code java.util.concurrent.Flow.Subscriber} and
+ * {@code org.reactivestreams.Subscriber}, so adapting it to either takes a
+ * few lines of forwarding code.
+ * <p>
+ * Each chunk is hashed in place as it arrives, on the thread that delivers
+ * it, so direct buffers are never copied onto the heap and only the hash
+ * state is held between chunks. The position of each buffer is advanced to
+ * its limit, after which the publisher may reuse it. Demand is requested a
+ * few chunks at a time and only replenished as chunks are hashed, so a slow
+ * hash slows the publisher instead of piling up buffers.
+ * <p>
+ * The subscriber is also the {@link Future} of the digest. Callers that must
+ * not block register a listener with
+ * {@link #addListener(Runnable, Executor)}, which runs once the digest is
+ * ready, the stream failed, or it was cancelled.
+ */
+public class NilsimsaSubscriber implements Future<NilsimsaDigest> {
+
+    /**
+     * This interface is the publisher's side of a subscription, matching
+     * {@code Flow.Subscription}.
+     */
+    public interface Subscription {
+
+        /**
+         * Ask for up to n more chunks.
+         *
+         * @param n the number of chunks, at least 1
+         */
+        void request(long n);
+
+        /**
+         * Ask the publisher to stop sending chunks.
+         */
+        void cancel();
+    }
+
+    private final Nilsimsa nilsimsa;
+    private final int prefetch;
+    private final int replenish;
+
+    // set by onSubscribe and read by cancel from any thread
+    private volatile Subscription subscription;
+
+    // only touched by the signals, which the protocol delivers one at a time
+    private int consumed;
+
+    // guarded by this
+    private boolean done;
+    private NilsimsaDigest digest;
+    private Throwable failure;
+    private boolean cancelled;
+    private List<Runnable> listeners = new ArrayList<Runnable>();
+
+    /**
+     * Create a subscriber using the default "53"-based transition table that
+     * keeps up to 4 chunks requested at a time.
+     */
+    public NilsimsaSubscriber() {
+        this(Nilsimsa.TRAN53, 4);
+    }
+
+    /**
+     * Create a subscriber using the given transition table.
+     *
+     * @param transitions the transition table to hash with
+     * @param prefetch the most chunks to have requested but not yet received
+     */
+    public NilsimsaSubscriber(int[] transitions, int prefetch) {
+        if (prefetch < 1) {
+            throw new IllegalArgumentException("Prefetch must be positive, found " + prefetch);
+        }
+        this.nilsimsa = new Nilsimsa(transitions);
+        this.prefetch = prefetch;
+        this.replenish = prefetch - (prefetch >> 1);
+    }
+
+    /**
+     * Start receiving chunks from the given subscription. A second
+     * subscription is cancelled, as is one that arrives after this
+     * subscriber was cancelled.
+     *
+     * @param subscription the publisher's subscription
+     */
+    public void onSubscribe(Subscription subscription) {
+        if (subscription == null) {
+            throw new NullPointerException("Subscription must not be null");
+        }
+        if (this.subscription != null || isDone()) {
+            subscription.cancel();
+            return;
+        }
+        this.subscription = subscription;
+        if (isDone()) {
+            // cancelled while storing it, so cancel may have missed it
+            subscription.cancel();
+            return;
+        }
+        subscription.request(prefetch);
+    }
+
+    /**
+     * Hash the remaining bytes of the next chunk in place and request more
+     * once enough chunks have been hashed.
+     *
+     * @param chunk the next part of the message
+     */
+    public void onNext(ByteBuffer chunk) {
+        if (chunk == null) {
+            throw new NullPointerException("Chunk must not be null");
+        }
+        if (isDone()) {
+            return;
+        }
+        try {
+            nilsimsa.update(chunk);
+        } catch (RuntimeException e) {
+            subscription.cancel();
+            onError(e);
+            return;
+        }
+        if (++consumed == replenish) {
+            consumed = 0;
+            subscription.request(replenish);
+        }
+    }
+
+    /**
+     * Fail the digest with the error that ended the stream.
+     *
+     * @param error the reason the message could not be delivered
+     */
+    public void onError(Throwable error) {
+        if (error == null) {
+            throw new NullPointerException("Error must not be null");
+        }
+        complete(null, error, false);
+    }
+
+    /**
+     * Complete the digest with everything hashed so far.
+     */
+    public void onComplete() {
+        if (!isDone()) {
+            complete(nilsimsa.toDigest(), null, false);
+        }
+    }
+
+    /**
+     * Run the given listener on the given executor once the digest is
+     * ready, the stream failed, or it was cancelled. If that has already
+     * happened the listener is run right away.
+     *
+     * @param listener the code to run
+     * @param executor where to run it, which may run it directly on the completing thread
+     */
+    public void addListener(Runnable listener, Executor executor) {
+        Runnable task = new ListenerTask(listener, executor);
+        synchronized (this) {
+            if (!done) {
+                listeners.add(task);
+                return;
+            }
+        }
+        task.run();
+    }
+
+    /**
+     * Cancel the subscription and the digest. The argument is ignored since
+     * hashing only happens while a chunk is being delivered.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (!complete(null, null, true)) {
+            return false;
+        }
+        Subscription s = subscription;
+        if (s != null) {
+            s.cancel();
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    @Override
+    public synchronized NilsimsaDigest get() throws InterruptedException, ExecutionException {
+        while (!done) {
+            wait();
+        }
+        return result();
+    }
+
+    @Override
+    public synchronized NilsimsaDigest get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!done) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new TimeoutException("Digest not ready after " + timeout + " " + unit);
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return result();
+    }
+
+    private NilsimsaDigest result() throws ExecutionException {
+        if (cancelled) {
+            throw new CancellationException("Hashing was cancelled");
+        }
+        if (failure != null) {
+            throw new ExecutionException(failure);
+        }
+        return digest;
+    }
+
+    /**
+     * Move to the done state once and run the listeners, returning false if
+     * already done.
+     */
+    private boolean complete(NilsimsaDigest digest, Throwable failure, boolean cancelled) {
+        List<Runnable> ready;
+        synchronized (this) {
+            if (done) {
+                return false;
+            }
+            this.done = true;
+            this.digest = digest;
+            this.failure = failure;
+            this.cancelled = cancelled;
+            ready = listeners;
+            listeners = null;
+            notifyAll();
+        }
+        for (Runnable listener : ready) {
+            listener.run();
+        }
+        return true;
+    }
+
+    /**
+     * This class submits a listener to its executor, so a listener or an
+     * executor that throws cannot stop the others from running.
+     */
+    private static final class ListenerTask implements Runnable {
+
+        private final Runnable listener;
+        private final Executor executor;
+
+        ListenerTask(Runnable listener, Executor executor) {
+            if (listener == null || executor == null) {
+                throw new NullPointerException("Listener and executor must not be null");
+            }
+            this.listener = listener;
+            this.executor = executor;
+        }
+
+        @Override
+        public void run() {
+            try {
+                executor.execute(listener);
+            } catch (RuntimeException e) {
+                // a rejected or failing listener has no one to report to, so it is dropped
+            }
+        }
+    }
+}
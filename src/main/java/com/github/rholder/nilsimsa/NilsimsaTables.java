@@ -0,0 +1,167 @@
+/*
+ * Copyright 2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.nilsimsa;
+
+import java.util.Arrays;
+
+/**
+ * This class holds the per-trigram lookup tables precomputed from a single
+ * transition table. Each of the 8 trigram slots n gets its own 256 entry
+ * table for each of the three terms of the Nilsimsa trigram hash so that the
+ * accumulator index for a trigram becomes 3 lookups, an XOR, and an add.
+ */
+final class NilsimsaTables {
+
+    /**
+     * Shared tables for the standard Nilsimsa "53"-based transition table.
+     */
+    static final NilsimsaTables TRAN53 = new NilsimsaTables(Nilsimsa.TRAN53);
+
+    // most recently built non-default tables, reused when asked for again
+    private static volatile NilsimsaTables last;
+
+    final int[] transitions;
+
+    // stable id of the transition table, see Nilsimsa.transitionsId()
+    final int id;
+
+    // transitions[(a + n) & 255] for each slot n
+    private final int[] first;
+
+    // (transitions[b] * (n + n + 1)) & 255 for each slot n, only the low 8 bits survive the final mask
+    private final int[] second;
+
+    // transitions[c ^ transitions[n]] for each slot n
+    private final int[] third;
+
+    private NilsimsaTables(int[] transitions) {
+        this.transitions = transitions.clone();
+        this.id = Arrays.hashCode(transitions);
+        first = new int[8 * 256];
+        second = new int[8 * 256];
+        third = new int[8 * 256];
+        for (int n = 0; n < 8; n++) {
+            for (int x = 0; x < 256; x++) {
+                first[(n << 8) + x] = this.transitions[(x + n) & 255];
+                second[(n << 8) + x] = (this.transitions[x] * (n + n + 1)) & 255;
+                third[(n << 8) + x] = this.transitions[x ^ this.transitions[n]];
+            }
+        }
+    }
+
+    /**
+     * Return the tables for the given transition table, reusing a previously
+     * computed instance when the contents of the table match.
+     *
+     * @param transitions a transition table of 256 ints
+     * @return the tables for the given transitions
+     */
+    static NilsimsaTables forTransitions(int[] transitions) {
+        if (transitions.length != 256) {
+            throw new IllegalArgumentException("A transition table must contain 256 values, found " + transitions.length);
+        }
+        if (Arrays.equals(transitions, TRAN53.transitions)) {
+            return TRAN53;
+        }
+        NilsimsaTables tables = last;
+        if (tables == null || !Arrays.equals(transitions, tables.transitions)) {
+            tables = new NilsimsaTables(transitions);
+            last = tables;
+        }
+        return tables;
+    }
+
+    /**
+     * Return the accumulator index for the given chars a, b, and c when
+     * computing for a specific trigram index.
+     *
+     * @param a first char
+     * @param b second char
+     * @param c third char
+     * @param n trigram index, between 0 - 7
+     */
+    int tran3(int a, int b, int c, int n) {
+        int slot = n << 8;
+        return ((first[slot + a] ^ second[slot + b]) + third[slot + c]) & 255;
+    }
+
+    /**
+     * Increment the accumulators for the 8 trigrams formed by the given char
+     * and a full window of the 4 previously seen chars, most recent first.
+     * This is the steady state of the hash and does no branching at all.
+     *
+     * @param acc accumulators to increment
+     * @param ch the next char
+     * @param w0 the last char seen
+     * @param w1 the char seen before w0
+     * @param w2 the char seen before w1
+     * @param w3 the char seen before w2
+     */
+    void update(int[] acc, int ch, int w0, int w1, int w2, int w3) {
+        final int[] first = this.first;
+        final int[] second = this.second;
+        final int[] third = this.third;
+
+        acc[((first[ch] ^ second[w0]) + third[w1]) & 255]++;
+        acc[((first[256 + ch] ^ second[256 + w0]) + third[256 + w2]) & 255]++;
+        acc[((first[512 + ch] ^ second[512 + w1]) + third[512 + w2]) & 255]++;
+        acc[((first[768 + ch] ^ second[768 + w0]) + third[768 + w3]) & 255]++;
+        acc[((first[1024 + ch] ^ second[1024 + w1]) + third[1024 + w3]) & 255]++;
+        acc[((first[1280 + ch] ^ second[1280 + w2]) + third[1280 + w3]) & 255]++;
+
+        // duplicate hashes, used to maintain 8 trigrams per character
+        acc[((first[1536 + w3] ^ second[1536 + w0]) + third[1536 + ch]) & 255]++;
+        acc[((first[1792 + w3] ^ second[1792 + w2]) + third[1792 + ch]) & 255]++;
+    }
+
+    /**
+     * Add delta to the accumulators for the 0-8 trigrams formed by the given
+     * char and a possibly partial window of previously seen chars, where an
+     * unseen char is -1. This handles the ramp-up over the first 4 chars.
+     *
+     * @param acc accumulators to adjust
+     * @param delta amount to add to each accumulator touched
+     * @param ch the next char
+     * @param w0 the last char seen, or -1
+     * @param w1 the char seen before w0, or -1
+     * @param w2 the char seen before w1, or -1
+     * @param w3 the char seen before w2, or -1
+     */
+    void update(int[] acc, int delta, int ch, int w0, int w1, int w2, int w3) {
+        if (w1 > -1) {
+            // seen at least 3 characters
+            acc[tran3(ch, w0, w1, 0)] += delta;
+        }
+
+        if (w2 > -1) {
+            // seen at least 4 characters
+            acc[tran3(ch, w0, w2, 1)] += delta;
+            acc[tran3(ch, w1, w2, 2)] += delta;
+        }
+
+        if (w3 > -1) {
+            // we have a full window of characters
+            acc[tran3(ch, w0, w3, 3)] += delta;
+            acc[tran3(ch, w1, w3, 4)] += delta;
+            acc[tran3(ch, w2, w3, 5)] += delta;
+
+            // duplicate hashes, used to maintain 8 trigrams per character
+            acc[tran3(w3, w0, ch, 6)] += delta;
+            acc[tran3(w3, w2, ch, 7)] += delta;
+        }
+    }
+}
@@ -0,0 +1,488 @@
+/*
+ * Copyright 2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.nilsimsa;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * This class is an exact metric index over digests, a vantage-point tree on
+ * the number of differing bits, which is 128 minus the compare score. Every
+ * node picks one digest as its vantage point and splits the rest at their
+ * median distance to it, so a query that is d bits from the vantage point
+ * only has to visit a side if the triangle inequality allows a match there.
+ * Unlike a banding index, any threshold can be queried without rebuilding
+ * and no match is ever missed. The results are the same as those of
+ * {@link NilsimsaScanner} over the digests in their original order.
+ * <p>
+ * Pruning works best for tight thresholds, finding near duplicates among
+ * mostly unrelated digests. Unrelated Nilsimsa digests are all about 128
+ * bits apart, so as the threshold falls toward a score of 0 a query has to
+ * visit most of the tree and a linear scan becomes faster. Threshold queries
+ * allowing more than 12 differing bits, a score below 116, therefore scan the
+ * tree's arrays directly. For thresholds that far down, and for k nearest
+ * queries where the k'th match is usually an unrelated digest, a
+ * {@link NilsimsaScanner} over the original array is faster still, since its
+ * results need no reordering.
+ * <p>
+ * The tree is immutable and kept in flat arrays with no node objects: the
+ * digests are reordered so that every subtree occupies a contiguous range,
+ * with its vantage point first, the nearer half next and the farther half
+ * last. Small subtrees are scanned linearly. A tree can be queried from any
+ * number of threads.
+ */
+public final class NilsimsaVpTree {
+
+    // subtrees this small are scanned instead of split
+    private static final int LEAF_SIZE = 16;
+
+    // past this many differing bits the tree prunes too little to beat a plain scan of it
+    private static final int MAX_TREE_DISTANCE = 12;
+
+    // the radius of the tree search for k nearest, before falling back to a scan
+    private static final int NEAREST_TREE_DISTANCE = 8;
+
+    // a parallel build hands out subtrees of at most size / this many digests
+    private static final int PARALLEL_SPLITS = 64;
+
+    // digests packed 4 words each, in tree order
+    private final long[] words;
+
+    // the original index of each digest, in tree order
+    private final int[] indexes;
+
+    // the median distance to the vantage point at the start of each split range
+    private final int[] medians;
+
+    /**
+     * Build a tree over the given digests on the calling thread.
+     *
+     * @param digests digests packed 4 words each, as for {@link NilsimsaScanner}
+     */
+    public NilsimsaVpTree(long[] digests) {
+        this(digests, digests.length >> 2);
+        new Builder(size()).build(0, size());
+    }
+
+    /**
+     * Build a tree over the given digests, splitting the top of the tree on
+     * the calling thread and building the subtrees below it as independent
+     * tasks on the given executor. No task waits on another.
+     *
+     * @param digests digests packed 4 words each, as for {@link NilsimsaScanner}
+     * @param executor the executor to build subtrees on, left running afterwards
+     * @throws InterruptedException if interrupted while waiting for the subtrees
+     */
+    public NilsimsaVpTree(long[] digests, ExecutorService executor) throws InterruptedException {
+        this(digests, digests.length >> 2);
+        List<int[]> ranges = new ArrayList<int[]>();
+        new Builder(size()).split(0, size(), Math.max(LEAF_SIZE, size() / PARALLEL_SPLITS), ranges);
+
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        try {
+            for (final int[] range : ranges) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        new Builder(range[1] - range[0]).build(range[0], range[1]);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new IllegalStateException(cause);
+        } finally {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private NilsimsaVpTree(long[] digests, int size) {
+        checkPacked(digests);
+        this.words = digests.clone();
+        this.indexes = new int[size];
+        this.medians = new int[size];
+        for (int i = 0; i < size; i++) {
+            indexes[i] = i;
+        }
+    }
+
+    /**
+     * Return the number of digests in the tree.
+     */
+    public int size() {
+        return indexes.length;
+    }
+
+    /**
+     * Return all digests that compare to the query with a score of at least
+     * the given threshold, in index order.
+     *
+     * @param query the digest to compare against the tree
+     * @param threshold the minimum compare score, between -127 and 128
+     * @return the matching digests and their scores
+     */
+    public NilsimsaMatches threshold(NilsimsaDigest query, int threshold) {
+        long start = NilsimsaScanner.startScan();
+        Search search = new Search(query, 128 - threshold);
+        NilsimsaMatches matches = new NilsimsaMatches(16);
+        if (search.maxDistance > MAX_TREE_DISTANCE) {
+            search.scan(0, size(), matches);
+        } else if (search.maxDistance >= 0) {
+            search.range(0, size(), matches);
+        }
+        sortByIndex(matches);
+        NilsimsaScanner.scanned(search.compared, start);
+        return matches;
+    }
+
+    /**
+     * Return the k digests with the highest compare score against the query,
+     * ordered from highest score to lowest. Ties go to the lower index.
+     *
+     * @param query the digest to compare against the tree
+     * @param k the maximum number of digests to return
+     * @return the best matching digests and their scores
+     */
+    public NilsimsaMatches topK(NilsimsaDigest query, int k) {
+        return topK(query, k, -128);
+    }
+
+    /**
+     * Return up to k digests with the highest compare score against the
+     * query that also have a score of at least the given threshold, ordered
+     * from highest score to lowest. Ties go to the lower index. The tree is
+     * searched within 8 bits of the query first, with the radius shrinking
+     * to the k'th best distance once k matches are found; if fewer than k are
+     * that close, the rest are found with a scan.
+     *
+     * @param query the digest to compare against the tree
+     * @param k the maximum number of digests to return
+     * @param threshold the minimum compare score, between -127 and 128
+     * @return the best matching digests and their scores
+     */
+    public NilsimsaMatches topK(NilsimsaDigest query, int k, int threshold) {
+        if (k < 0) {
+            throw new IllegalArgumentException("k must not be negative, found " + k);
+        }
+        k = Math.min(k, size());
+        long start = NilsimsaScanner.startScan();
+        Search search = new Search(query, 128 - threshold);
+        int[] heapIndexes = new int[k];
+        int[] heapScores = new int[k];
+        int maxDistance = 128 - threshold;
+        if (k > 0 && maxDistance >= 0) {
+            // first search the tree within a small radius, where it prunes well
+            int radius = Math.min(maxDistance, NEAREST_TREE_DISTANCE);
+            search.maxDistance = radius;
+            search.nearest(0, size(), heapIndexes, heapScores);
+            if (search.size < k && maxDistance > radius) {
+                // everything within the radius is in the heap, so scan for the rest beyond it
+                search.maxDistance = maxDistance;
+                search.scanNearest(radius, heapIndexes, heapScores);
+            }
+        }
+        NilsimsaScanner.sortHeap(heapIndexes, heapScores, search.size);
+        NilsimsaScanner.scanned(search.compared, start);
+        return new NilsimsaMatches(heapIndexes, heapScores, search.size);
+    }
+
+    /**
+     * Put matches found in tree order back in index order. Large results are
+     * placed by index directly, since the indexes are unique and below the
+     * size of the tree.
+     */
+    private void sortByIndex(NilsimsaMatches matches) {
+        int count = matches.size();
+        if (count <= size() >> 6) {
+            matches.sortByIndex();
+            return;
+        }
+        int[] scores = new int[size()];
+        Arrays.fill(scores, Integer.MIN_VALUE);
+        for (int i = 0; i < count; i++) {
+            scores[matches.getIndex(i)] = matches.getScore(i);
+        }
+        matches.clear();
+        for (int index = 0; index < scores.length; index++) {
+            if (scores[index] != Integer.MIN_VALUE) {
+                matches.add(index, scores[index]);
+            }
+        }
+    }
+
+    private int distance(long q0, long q1, long q2, long q3, int position) {
+        int o = position << 2;
+        return Long.bitCount(q0 ^ words[o]) + Long.bitCount(q1 ^ words[o + 1])
+                + Long.bitCount(q2 ^ words[o + 2]) + Long.bitCount(q3 ^ words[o + 3]);
+    }
+
+    /**
+     * Return the start of the farther half of the split range [lo, hi),
+     * whose vantage point is at lo.
+     */
+    private static int middle(int lo, int hi) {
+        return lo + 1 + ((hi - lo - 1) >> 1);
+    }
+
+    private static void checkPacked(long[] digests) {
+        if ((digests.length & 3) != 0) {
+            throw new IllegalArgumentException("Packed digests must contain a multiple of 4 words, found " + digests.length);
+        }
+    }
+
+    /**
+     * This class holds a query and its search radius as it walks the tree.
+     */
+    private final class Search {
+
+        final long q0;
+        final long q1;
+        final long q2;
+        final long q3;
+
+        // the most bits a match may differ in, which only shrinks during a k nearest search
+        int maxDistance;
+
+        // the number of entries in the heap of a k nearest search
+        int size;
+
+        // the number of digests compared with the query, for the installed listener
+        long compared;
+
+        Search(NilsimsaDigest query, int maxDistance) {
+            this.q0 = query.getWord(0);
+            this.q1 = query.getWord(1);
+            this.q2 = query.getWord(2);
+            this.q3 = query.getWord(3);
+            this.maxDistance = maxDistance;
+        }
+
+        void range(int lo, int hi, NilsimsaMatches matches) {
+            if (hi - lo <= LEAF_SIZE) {
+                scan(lo, hi, matches);
+                return;
+            }
+
+            int d = distance(q0, q1, q2, q3, lo);
+            compared++;
+            if (d <= maxDistance) {
+                matches.add(indexes[lo], 128 - d);
+            }
+            int median = medians[lo];
+            int mid = middle(lo, hi);
+            if (d - maxDistance <= median) {
+                range(lo + 1, mid, matches);
+            }
+            if (d + maxDistance >= median) {
+                range(mid, hi, matches);
+            }
+        }
+
+        void scan(int lo, int hi, NilsimsaMatches matches) {
+            final long[] words = NilsimsaVpTree.this.words;
+            final int maxDistance = this.maxDistance;
+            compared += hi - lo;
+            for (int p = lo, o = lo << 2; p < hi; p++, o += 4) {
+                int d = Long.bitCount(q0 ^ words[o]) + Long.bitCount(q1 ^ words[o + 1]);
+                if (d > maxDistance) {
+                    continue;
+                }
+                d += Long.bitCount(q2 ^ words[o + 2]) + Long.bitCount(q3 ^ words[o + 3]);
+                if (d <= maxDistance) {
+                    matches.add(indexes[p], 128 - d);
+                }
+            }
+        }
+
+        /**
+         * Offer every digest further than the given distance to the heap,
+         * skipping those within it as soon as possible.
+         */
+        void scanNearest(int beyond, int[] heapIndexes, int[] heapScores) {
+            final long[] words = NilsimsaVpTree.this.words;
+            compared += indexes.length;
+            for (int p = 0, o = 0; p < indexes.length; p++, o += 4) {
+                int d = Long.bitCount(q0 ^ words[o]) + Long.bitCount(q1 ^ words[o + 1]);
+                if (d > maxDistance) {
+                    continue;
+                }
+                d += Long.bitCount(q2 ^ words[o + 2]) + Long.bitCount(q3 ^ words[o + 3]);
+                if (d > beyond) {
+                    offer(d, p, heapIndexes, heapScores);
+                }
+            }
+        }
+
+        void nearest(int lo, int hi, int[] heapIndexes, int[] heapScores) {
+            if (hi - lo <= LEAF_SIZE) {
+                compared += hi - lo;
+                for (int p = lo; p < hi; p++) {
+                    offer(distance(q0, q1, q2, q3, p), p, heapIndexes, heapScores);
+                }
+                return;
+            }
+
+            int d = distance(q0, q1, q2, q3, lo);
+            compared++;
+            offer(d, lo, heapIndexes, heapScores);
+            int median = medians[lo];
+            int mid = middle(lo, hi);
+
+            // the side the query falls in is the more likely to tighten the radius
+            if (d < median) {
+                if (d - maxDistance <= median) {
+                    nearest(lo + 1, mid, heapIndexes, heapScores);
+                }
+                if (d + maxDistance >= median) {
+                    nearest(mid, hi, heapIndexes, heapScores);
+                }
+            } else {
+                if (d + maxDistance >= median) {
+                    nearest(mid, hi, heapIndexes, heapScores);
+                }
+                if (d - maxDistance <= median) {
+                    nearest(lo + 1, mid, heapIndexes, heapScores);
+                }
+            }
+        }
+
+        private void offer(int d, int position, int[] heapIndexes, int[] heapScores) {
+            if (d > maxDistance) {
+                return;
+            }
+            size = NilsimsaScanner.offer(heapIndexes, heapScores, size, indexes[position], 128 - d);
+            if (size == heapIndexes.length) {
+                // a tie with the worst can still win on a lower index, so keep its distance
+                maxDistance = Math.min(maxDistance, 128 - heapScores[0]);
+            }
+        }
+    }
+
+    /**
+     * This class splits ranges of the tree in place. Each builder has its own
+     * scratch space for a range of up to the given size, so builders working
+     * on disjoint ranges can run at the same time.
+     */
+    private final class Builder {
+
+        final long[] scratchWords;
+        final int[] scratchIndexes;
+        final int[] distances;
+        final int[] counts = new int[258];
+
+        Builder(int capacity) {
+            scratchWords = new long[capacity << 2];
+            scratchIndexes = new int[capacity];
+            distances = new int[capacity];
+        }
+
+        void build(int lo, int hi) {
+            if (hi - lo <= LEAF_SIZE) {
+                return;
+            }
+            partition(lo, hi);
+            int mid = middle(lo, hi);
+            build(lo + 1, mid);
+            build(mid, hi);
+        }
+
+        /**
+         * Split ranges larger than the grain, collecting the ranges left to
+         * build.
+         */
+        void split(int lo, int hi, int grain, List<int[]> ranges) {
+            if (hi - lo <= grain) {
+                if (hi - lo > LEAF_SIZE) {
+                    ranges.add(new int[]{lo, hi});
+                }
+                return;
+            }
+            partition(lo, hi);
+            int mid = middle(lo, hi);
+            split(lo + 1, mid, grain, ranges);
+            split(mid, hi, grain, ranges);
+        }
+
+        /**
+         * Pick a vantage point for [lo, hi), move it to lo, and sort the rest
+         * of the range by distance to it with a counting sort, recording the
+         * distance at the middle.
+         */
+        private void partition(int lo, int hi) {
+            // a fixed pseudo-random choice, so the tree is the same however it is built
+            int size = hi - lo;
+            swap(lo, lo + (LongIntHashMap.mix(lo) & Integer.MAX_VALUE) % size);
+
+            int o = lo << 2;
+            long v0 = words[o];
+            long v1 = words[o + 1];
+            long v2 = words[o + 2];
+            long v3 = words[o + 3];
+            int first = lo + 1;
+            int count = hi - first;
+            Arrays.fill(counts, 0);
+            for (int i = 0; i < count; i++) {
+                int d = distance(v0, v1, v2, v3, first + i);
+                distances[i] = d;
+                counts[d + 1]++;
+            }
+            for (int d = 1; d < counts.length; d++) {
+                counts[d] += counts[d - 1];
+            }
+            for (int i = 0; i < count; i++) {
+                int to = counts[distances[i]]++;
+                System.arraycopy(words, (first + i) << 2, scratchWords, to << 2, 4);
+                scratchIndexes[to] = indexes[first + i];
+            }
+            System.arraycopy(scratchWords, 0, words, first << 2, count << 2);
+            System.arraycopy(scratchIndexes, 0, indexes, first, count);
+
+            // counts[d] now holds the end of distance d in the sorted range
+            int mid = middle(lo, hi) - first;
+            int median = 0;
+            while (counts[median] <= mid) {
+                median++;
+            }
+            medians[lo] = median;
+        }
+
+        private void swap(int a, int b) {
+            for (int w = 0; w < 4; w++) {
+                long t = words[(a << 2) + w];
+                words[(a << 2) + w] = words[(b << 2) + w];
+                words[(b << 2) + w] = t;
+            }
+            int t = indexes[a];
+            indexes[a] = indexes[b];
+            indexes[b] = t;
+        }
+    }
+}
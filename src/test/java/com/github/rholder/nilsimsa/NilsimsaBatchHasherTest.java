@@ -0,0 +1,112 @@
+/*
+ * Copyright 2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.nilsimsa;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class NilsimsaBatchHasherTest {
+
+    @Test
+    public void digestsInInputOrder() throws InterruptedException {
+        List<byte[]> documents = randomDocuments(1000);
+        NilsimsaBatchHasher hasher = new NilsimsaBatchHasher(Nilsimsa.TRAN53, 4, 7);
+        try {
+            List<NilsimsaDigest> digests = hasher.hash(documents);
+            Assert.assertEquals(documents.size(), digests.size());
+            for (int i = 0; i < documents.size(); i++) {
+                Assert.assertEquals(new Nilsimsa().update(documents.get(i)).toDigest(), digests.get(i));
+            }
+        } finally {
+            hasher.close();
+        }
+    }
+
+    @Test
+    public void buffers() throws InterruptedException {
+        List<byte[]> documents = randomDocuments(300);
+        List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+        for (int i = 0; i < documents.size(); i++) {
+            byte[] document = documents.get(i);
+            ByteBuffer buffer;
+            if (i % 3 == 0) {
+                buffer = ByteBuffer.wrap(document);
+            } else if (i % 3 == 1) {
+                // a direct buffer with a non-zero position
+                buffer = ByteBuffer.allocateDirect(document.length + 10000);
+                buffer.position(10000);
+                buffer.put(document);
+                buffer.position(10000);
+            } else {
+                // a slice of a heap buffer with a non-zero array offset
+                ByteBuffer padded = ByteBuffer.allocate(document.length + 5);
+                padded.position(5);
+                buffer = padded.slice();
+                buffer.put(document);
+                buffer.flip();
+            }
+            buffers.add(buffer);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            NilsimsaBatchHasher hasher = new NilsimsaBatchHasher(Nilsimsa.generateTransitions(17), executor, 16);
+            List<NilsimsaDigest> digests = hasher.hashBuffers(buffers);
+            hasher.close();
+            Assert.assertFalse(executor.isShutdown());
+
+            for (int i = 0; i < documents.size(); i++) {
+                Nilsimsa expected = new Nilsimsa(Nilsimsa.generateTransitions(17)).update(documents.get(i));
+                Assert.assertEquals(expected.toDigest(), digests.get(i));
+                Assert.assertEquals(i % 3 == 1 ? 10000 : 0, buffers.get(i).position());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void resetMatchesNewInstance() {
+        Nilsimsa reused = new Nilsimsa();
+        for (byte[] document : randomDocuments(50)) {
+            Assert.assertEquals(new Nilsimsa().update(document).toHexDigest(), reused.reset().update(document).toHexDigest());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidBatchSize() {
+        new NilsimsaBatchHasher(Nilsimsa.TRAN53, 1, 0);
+    }
+
+    private static List<byte[]> randomDocuments(int count) {
+        Random random = new Random(53);
+        List<byte[]> documents = new ArrayList<byte[]>();
+        for (int i = 0; i < count; i++) {
+            byte[] document = new byte[random.nextInt(i % 10 == 0 ? 20000 : 500)];
+            random.nextBytes(document);
+            documents.add(document);
+        }
+        return documents;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.nilsimsa;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class NilsimsaCacheTest {
+
+    @Test
+    public void murmur3() {
+        // reference values from the canonical x64 128-bit implementation
+        Assert.assertEquals("00000000000000000000000000000000", fingerprint(""));
+        Assert.assertEquals("6c1b07bc7bbc4be347939ac4a93c437a", fingerprint("The quick brown fox jumps over the lazy dog"));
+    }
+
+    @Test
+    public void hitsAndMisses() {
+        NilsimsaCache cache = new NilsimsaCache(100);
+        byte[] message = NilsimsaHashTest.LONG_VALUE.getBytes(NilsimsaHashTest.UTF8);
+        NilsimsaDigest expected = new Nilsimsa().update(message).toDigest();
+
+        Assert.assertEquals(expected, cache.get(message));
+        Assert.assertSame(cache.get(message), cache.get(message.clone()));
+        Assert.assertEquals(1, cache.getMisses());
+        Assert.assertEquals(2, cache.getHits());
+        Assert.assertEquals(2.0 / 3, cache.getHitRate(), 1e-9);
+
+        // a range and a different table are different entries
+        Assert.assertEquals(new Nilsimsa().update(message, 1, 50).toDigest(), cache.get(message, 1, 50));
+        int[] tran17 = Nilsimsa.generateTransitions(17);
+        Assert.assertEquals(new Nilsimsa(tran17).update(message).toDigest(), cache.get(tran17, message, 0, message.length));
+        Assert.assertSame(cache.get(message), cache.get(Nilsimsa.TRAN53, message, 0, message.length));
+        // a second miss on the custom table reuses its pooled instance, which must start from scratch
+        Assert.assertEquals(new Nilsimsa(tran17).update(message, 2, 40).toDigest(), cache.get(tran17, message, 2, 40));
+        Assert.assertEquals(4, cache.size());
+
+        cache.clear();
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        NilsimsaCache cache = new NilsimsaCache(4, 1);
+        byte[][] inputs = new byte[6][];
+        Random random = new Random(53);
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i] = new byte[100];
+            random.nextBytes(inputs[i]);
+        }
+        for (int i = 0; i < 4; i++) {
+            cache.get(inputs[i]);
+        }
+        // touch the first so that the second is the oldest
+        cache.get(inputs[0]);
+        cache.get(inputs[4]);
+        cache.get(inputs[5]);
+        Assert.assertEquals(4, cache.size());
+        Assert.assertEquals(2, cache.getEvictions());
+
+        long misses = cache.getMisses();
+        cache.get(inputs[0]);
+        cache.get(inputs[3]);
+        Assert.assertEquals(misses, cache.getMisses());
+        cache.get(inputs[1]);
+        Assert.assertEquals(misses + 1, cache.getMisses());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidSegments() {
+        new NilsimsaCache(100, 3);
+    }
+
+    private static String fingerprint(String s) {
+        byte[] data = s.getBytes(NilsimsaHashTest.UTF8);
+        long[] hash = NilsimsaCache.murmur3(data, 0, data.length);
+        StringBuilder b = new StringBuilder();
+        for (long h : hash) {
+            for (int i = 0; i < 8; i++) {
+                b.append(String.format("%02x", (h >>> (i * 8)) & 0xFF));
+            }
+        }
+        return b.toString();
+    }
+}
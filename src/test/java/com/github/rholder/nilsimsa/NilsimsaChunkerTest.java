@@ -0,0 +1,156 @@
+/*
+ * Copyright 2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.nilsimsa;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class NilsimsaChunkerTest {
+
+    private static final String[] WORDS = {
+            "the", "quick", "brown", "fox", "jumps", "over", "lazy", "dog", "meeting", "report", "quarterly",
+            "budget", "schedule", "project", "review", "team", "update", "please", "attached", "thanks"
+    };
+
+    private static final String[] SPAM = {
+            "FREE", "WINNER", "click", "here", "now", "limited", "offer", "\u20ac\u20ac\u20ac", "viagra", "casino",
+            "CLAIM", "prize", "http://example.com/?id=", "act", "fast", "!!!", "$$$", "unsubscribe", "bonus", "cash"
+    };
+
+    @Test
+    public void chunksAreDigestsOfTheirBytes() {
+        byte[] data = text(new Random(1), WORDS, 50000);
+        NilsimsaSignature signature = new NilsimsaChunker(Nilsimsa.TRAN53, 128, 512, 2048).update(data).toSignature();
+        Assert.assertTrue(signature.size() > 10);
+        Assert.assertEquals(data.length, signature.getTotalLength());
+
+        int offset = 0;
+        for (int i = 0; i < signature.size(); i++) {
+            int length = signature.getLength(i);
+            Assert.assertTrue(length <= 2048);
+            Assert.assertTrue(length >= 128 || i == signature.size() - 1);
+            Assert.assertEquals(new Nilsimsa().update(data, offset, length).toDigest(), signature.getDigest(i));
+            offset += length;
+        }
+    }
+
+    @Test
+    public void independentOfPieces() {
+        Random random = new Random(2);
+        byte[] data = text(random, WORDS, 30000);
+        NilsimsaChunker chunker = new NilsimsaChunker(Nilsimsa.TRAN53, 32, 256, 1024);
+        NilsimsaSignature whole = chunker.update(data).toSignature();
+
+        for (int offset = 0; offset < data.length; ) {
+            int length = Math.min(random.nextInt(700), data.length - offset);
+            chunker.update(data, offset, length);
+            offset += length;
+        }
+        Assert.assertEquals(whole, chunker.toSignature());
+        Assert.assertEquals(0, chunker.toSignature().size());
+    }
+
+    @Test
+    public void findsEmbeddedPayload() {
+        Random random = new Random(3);
+        byte[] payload = text(random, SPAM, 4000);
+        byte[] before = text(random, WORDS, 40000);
+        byte[] after = text(random, WORDS, 20000);
+        byte[] message = new byte[before.length + payload.length + after.length];
+        System.arraycopy(before, 0, message, 0, before.length);
+        System.arraycopy(payload, 0, message, before.length, payload.length);
+        System.arraycopy(after, 0, message, before.length + payload.length, after.length);
+
+        NilsimsaChunker chunker = new NilsimsaChunker();
+        NilsimsaSignature payloadSignature = chunker.update(payload).toSignature();
+        NilsimsaSignature messageSignature = chunker.update(message).toSignature();
+        byte[] noise = new byte[4000];
+        random.nextBytes(noise);
+        NilsimsaSignature unrelated = chunker.update(noise).toSignature();
+
+        // a single digest barely notices the payload, chunk signatures do
+        Assert.assertTrue(Nilsimsa.compare(new Nilsimsa().update(payload).digest(), new Nilsimsa().update(message).digest()) < 100);
+        Assert.assertTrue(payloadSignature.containment(messageSignature, 100) >= 0.5);
+        Assert.assertEquals(payloadSignature.containment(messageSignature, 100), payloadSignature.similarity(messageSignature, 100), 0);
+        Assert.assertTrue(messageSignature.containment(payloadSignature, 100) < 0.2);
+        Assert.assertTrue(unrelated.containment(messageSignature, 100) < 0.2);
+        Assert.assertEquals(1.0, messageSignature.containment(messageSignature, 128), 0);
+    }
+
+    @Test
+    public void bestScores() {
+        Random random = new Random(4);
+        NilsimsaChunker chunker = new NilsimsaChunker(Nilsimsa.TRAN53, 64, 256, 1024);
+        NilsimsaSignature a = chunker.update(text(random, WORDS, 5000)).toSignature();
+        NilsimsaSignature b = chunker.update(text(random, WORDS, 5000)).toSignature();
+        NilsimsaSignature empty = chunker.toSignature();
+
+        int[] scores = a.bestScores(b);
+        for (int i = 0; i < a.size(); i++) {
+            int best = -128;
+            for (int j = 0; j < b.size(); j++) {
+                best = Math.max(best, a.getDigest(i).compare(b.getDigest(j)));
+            }
+            Assert.assertEquals(best, scores[i]);
+        }
+
+        int[] none = new int[a.size()];
+        Arrays.fill(none, -128);
+        Assert.assertArrayEquals(none, a.bestScores(empty));
+        Assert.assertEquals(0, empty.containment(a, -127), 0);
+        Assert.assertEquals(0, a.containment(empty, -127), 0);
+    }
+
+    @Test
+    public void bytesRoundTrip() {
+        NilsimsaSignature signature = new NilsimsaChunker().update(text(new Random(5), WORDS, 20000)).toSignature();
+        byte[] bytes = signature.toBytes();
+        Assert.assertEquals(4 + 36 * signature.size(), bytes.length);
+        Assert.assertEquals(signature, NilsimsaSignature.fromBytes(bytes));
+        Assert.assertEquals(signature.hashCode(), NilsimsaSignature.fromBytes(bytes).hashCode());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void badBytes() {
+        NilsimsaSignature.fromBytes(new byte[]{0, 0, 0, 2, 1, 2, 3});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void badTargetSize() {
+        new NilsimsaChunker(Nilsimsa.TRAN53, 64, 1000, 4096);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void badChunk() {
+        new NilsimsaChunker().update(new byte[10]).toSignature().getDigest(1);
+    }
+
+    private static byte[] text(Random random, String[] words, int size) {
+        StringBuilder text = new StringBuilder(size + 16);
+        while (text.length() < size) {
+            text.append(words[random.nextInt(words.length)]).append(random.nextInt(10) == 0 ? ".\n" : " ");
+            if (random.nextInt(8) == 0) {
+                text.append(random.nextInt(100000));
+            }
+        }
+        text.setLength(size);
+        return text.toString().getBytes(NilsimsaHashTest.UTF8);
+    }
+}
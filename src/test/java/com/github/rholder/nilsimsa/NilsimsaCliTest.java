@@ -0,0 +1,190 @@
+/*
+ * Copyright 2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.nilsimsa;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class NilsimsaCliTest {
+
+    @Test
+    public void hashText() throws IOException {
+        File dir = tree();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        Assert.assertEquals(0, run(out, err, "hash", "-t", "2", dir.getPath()));
+
+        List<String> lines = lines(out);
+        Collections.sort(lines);
+        List<String> expected = new ArrayList<String>();
+        for (File file : files(dir)) {
+            expected.add(Nilsimsa.hashFile(file).toHex() + "  " + file.getPath());
+        }
+        Collections.sort(expected);
+        Assert.assertEquals(expected, lines);
+        Assert.assertTrue(err.toString("UTF-8"), err.toString("UTF-8").startsWith("hashed 3 files, 1.5 MB"));
+    }
+
+    @Test
+    public void outputStreamStaysOpen() throws IOException {
+        File dir = tree();
+        File reference = File.createTempFile("nilsimsa", ".txt");
+        reference.deleteOnExit();
+        Assert.assertEquals(0, run(new ByteArrayOutputStream(), new ByteArrayOutputStream(),
+                "hash", "-o", reference.getPath(), dir.getPath()));
+
+        for (String[] args : new String[][]{
+                {"hash", dir.getPath()},
+                {"search", "-r", reference.getPath(), "-s", "128", dir.getPath()}}) {
+            final boolean[] closed = new boolean[1];
+            ByteArrayOutputStream out = new ByteArrayOutputStream() {
+                @Override
+                public void close() {
+                    closed[0] = true;
+                }
+            };
+            Assert.assertEquals(0, NilsimsaCli.run(args, new PrintStream(out), new PrintStream(new ByteArrayOutputStream())));
+            Assert.assertFalse(args[0], closed[0]);
+            Assert.assertFalse(args[0], lines(out).isEmpty());
+        }
+    }
+
+    @Test
+    public void hashBinaryThenSearch() throws IOException {
+        File dir = tree();
+        File reference = File.createTempFile("nilsimsa", ".nls");
+        reference.deleteOnExit();
+        new File(reference.getPath() + ".paths").deleteOnExit();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        Assert.assertEquals(0, run(out, err, "hash", "-b", "-o", reference.getPath(), dir.getPath()));
+        Assert.assertEquals(0, out.size());
+
+        NilsimsaStore store = new NilsimsaStore(reference);
+        try {
+            Assert.assertEquals(3, store.size());
+        } finally {
+            store.close();
+        }
+
+        // a.txt finds itself and its edited copy, but not the random bytes
+        File query = new File(dir, "a.txt");
+        Assert.assertEquals(0, run(out, err, "search", "-r", reference.getPath(), "-s", "100", query.getPath()));
+        List<String> lines = lines(out);
+        Collections.sort(lines);
+        Assert.assertEquals(Arrays.asList(
+                query.getPath() + "\t" + query.getPath() + "\t128",
+                query.getPath() + "\t" + new File(dir, "b.txt").getPath() + "\t"
+                        + Nilsimsa.hashFile(query).compare(Nilsimsa.hashFile(new File(dir, "b.txt")))), lines);
+    }
+
+    @Test
+    public void searchText() throws IOException {
+        File dir = tree();
+        File reference = File.createTempFile("nilsimsa", ".txt");
+        reference.deleteOnExit();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        Assert.assertEquals(0, run(out, err, "hash", "-o", reference.getPath(), dir.getPath()));
+
+        File query = new File(dir, "sub/c.bin");
+        Assert.assertEquals(0, run(out, err, "search", "-r", reference.getPath(), "-s", "128", query.getPath()));
+        Assert.assertEquals(Arrays.asList(query.getPath() + "\t" + query.getPath() + "\t128"), lines(out));
+    }
+
+    @Test
+    public void missingFile() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        File dir = tree();
+        Assert.assertEquals(1, run(out, err, "hash", dir.getPath(), new File(dir, "missing").getPath()));
+        Assert.assertEquals(3, lines(out).size());
+        Assert.assertTrue(err.toString("UTF-8"), err.toString("UTF-8").contains("missing: no such file or directory"));
+    }
+
+    @Test
+    public void usage() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        Assert.assertEquals(2, run(out, err));
+        Assert.assertEquals(2, run(out, err, "hash"));
+        Assert.assertEquals(2, run(out, err, "hash", "-b", "."));
+        Assert.assertEquals(2, run(out, err, "hash", "-t", "0", "."));
+        Assert.assertEquals(2, run(out, err, "search", "."));
+        Assert.assertEquals(2, run(out, err, "search", "-r", "x", "-s", "200", "."));
+        Assert.assertEquals(0, out.size());
+        Assert.assertTrue(err.toString("UTF-8").contains("usage:"));
+    }
+
+    private static int run(ByteArrayOutputStream out, ByteArrayOutputStream err, String... args) {
+        out.reset();
+        err.reset();
+        return NilsimsaCli.run(args, new PrintStream(out, true), new PrintStream(err, true));
+    }
+
+    private static List<String> lines(ByteArrayOutputStream out) throws IOException {
+        String text = out.toString("UTF-8");
+        return text.isEmpty() ? new ArrayList<String>() : new ArrayList<String>(Arrays.asList(text.split("\n")));
+    }
+
+    /**
+     * Return a directory holding two similar text files and, in a
+     * subdirectory, a file large enough to be memory-mapped.
+     */
+    private static File tree() throws IOException {
+        File dir = File.createTempFile("nilsimsa", "");
+        Assert.assertTrue(dir.delete() && dir.mkdir());
+        File sub = new File(dir, "sub");
+        Assert.assertTrue(sub.mkdir());
+
+        // deleted in reverse order, so the directories go after their files
+        dir.deleteOnExit();
+        sub.deleteOnExit();
+
+        byte[] large = new byte[3 * 1024 * 1024 / 2];
+        new Random(42).nextBytes(large);
+        write(new File(dir, "a.txt"), NilsimsaHashTest.LONG_VALUE.getBytes(NilsimsaHashTest.UTF8));
+        write(new File(dir, "b.txt"), (NilsimsaHashTest.LONG_VALUE + "!").getBytes(NilsimsaHashTest.UTF8));
+        write(new File(sub, "c.bin"), large);
+        return dir;
+    }
+
+    private static List<File> files(File dir) {
+        return Arrays.asList(new File(dir, "a.txt"), new File(dir, "b.txt"), new File(dir, "sub/c.bin"));
+    }
+
+    private static void write(File file, byte[] data) throws IOException {
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+}
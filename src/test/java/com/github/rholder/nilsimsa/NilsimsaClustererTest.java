@@ -0,0 +1,198 @@
+/*
+ * Copyright 2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.nilsimsa;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class NilsimsaClustererTest {
+
+    @Test
+    public void exactMatchesAllPairs() throws InterruptedException {
+        List<NilsimsaDigest> digests = clusteredDigests(1500, 53);
+        long[] packed = NilsimsaScanner.pack(digests);
+        long[] ids = ids(digests.size());
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int threshold : new int[]{100, 110, 128}) {
+                long[] expected = allPairs(ids, digests, threshold);
+                NilsimsaClusterer clusterer = new NilsimsaClusterer(threshold, 32, executor);
+                Assert.assertTrue(clusterer.isExact());
+
+                NilsimsaClusterer.Result result = clusterer.cluster(ids, packed);
+                Assert.assertArrayEquals(expected, result.getClusterIds());
+                Assert.assertEquals(distinct(expected), result.getClusterCount());
+                Assert.assertEquals(digests.size(), result.size());
+
+                Assert.assertEquals((long) ids.length * (ids.length - 1) / 2, result.getTotalPairs());
+                Assert.assertEquals(result.getTotalPairs(), result.getCheckedPairs() + result.getPrunedPairs());
+                Assert.assertTrue(result.getCheckedPairs() <= result.getCandidatePairs());
+                Assert.assertTrue(result.getMatchingPairs() <= result.getCheckedPairs());
+                // unrelated digests share one of 32 8-bit blocks about 12% of the time
+                Assert.assertTrue(result.getCheckedPairs() < result.getTotalPairs() / 5);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void approximateNeverJoinsNonMatches() throws InterruptedException {
+        List<NilsimsaDigest> digests = clusteredDigests(1000, 17);
+        long[] ids = ids(digests.size());
+        long[] expected = allPairs(ids, digests, 90);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            NilsimsaClusterer clusterer = new NilsimsaClusterer(90, 4, executor);
+            Assert.assertFalse(clusterer.isExact());
+            Assert.assertEquals(3, clusterer.getMaxExactDistance());
+
+            NilsimsaClusterer.Result result = clusterer.cluster(ids, NilsimsaScanner.pack(digests));
+            for (int i = 0; i < ids.length; i++) {
+                // every cluster found lies within a true cluster
+                int first = (int) (result.getClusterId(i) - 1000);
+                Assert.assertEquals(expected[i], expected[first]);
+            }
+            Assert.assertTrue(result.getClusterCount() >= distinct(expected));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void identicalDigestsAreCheckedOnce() throws InterruptedException {
+        // half the records share one of three digests, the way bulk mail does
+        List<NilsimsaDigest> digests = clusteredDigests(2000, 29);
+        for (int i = 0; i < digests.size(); i += 2) {
+            digests.set(i, digests.get(i % 3));
+        }
+        long[] ids = ids(digests.size());
+        long[] expected = allPairs(ids, digests, 120);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            NilsimsaClusterer.Result result = new NilsimsaClusterer(120, 16, executor)
+                    .cluster(ids, NilsimsaScanner.pack(digests));
+            Assert.assertArrayEquals(expected, result.getClusterIds());
+            Assert.assertTrue(result.getCheckedPairs() <= result.getCandidatePairs());
+            // 1000 copies of 3 digests would be about 166k pairs in each shared bucket
+            Assert.assertTrue(result.toString(), result.getCandidatePairs() < 50000);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void emptyAndSingle() throws InterruptedException {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            NilsimsaClusterer clusterer = new NilsimsaClusterer(100, executor);
+            Assert.assertEquals(0, clusterer.cluster(new long[0], new long[0]).getClusterCount());
+            NilsimsaClusterer.Result result = clusterer.cluster(new long[]{7}, new long[4]);
+            Assert.assertEquals(7, result.getClusterId(0));
+            Assert.assertEquals(0, result.getTotalPairs());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mismatchedInput() throws InterruptedException {
+        new NilsimsaClusterer(100, null).cluster(new long[2], new long[4]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidBlocks() {
+        new NilsimsaClusterer(100, 5, null);
+    }
+
+    /**
+     * Return digests of groups of slight variations of random data, so that
+     * there are clusters of several records with chains of close matches.
+     */
+    private static List<NilsimsaDigest> clusteredDigests(int count, long seed) {
+        Random random = new Random(seed);
+        List<NilsimsaDigest> digests = new ArrayList<NilsimsaDigest>();
+        byte[] data = new byte[512];
+        for (int i = 0; i < count; i++) {
+            if (random.nextInt(4) == 0) {
+                random.nextBytes(data);
+            } else {
+                for (int k = random.nextInt(8); k >= 0; k--) {
+                    data[random.nextInt(data.length)] = (byte) random.nextInt();
+                }
+            }
+            digests.add(new Nilsimsa().update(data).toDigest());
+        }
+        return digests;
+    }
+
+    private static long[] ids(int count) {
+        long[] ids = new long[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = 1000 + i;
+        }
+        return ids;
+    }
+
+    /**
+     * Return the cluster id of each record found by comparing all pairs.
+     */
+    private static long[] allPairs(long[] ids, List<NilsimsaDigest> digests, int threshold) {
+        int[] roots = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            roots[i] = i;
+        }
+        for (int i = 0; i < ids.length; i++) {
+            for (int j = 0; j < i; j++) {
+                if (digests.get(i).compare(digests.get(j)) >= threshold) {
+                    int a = root(roots, i);
+                    int b = root(roots, j);
+                    roots[Math.max(a, b)] = Math.min(a, b);
+                }
+            }
+        }
+        long[] clusterIds = new long[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            clusterIds[i] = ids[root(roots, i)];
+        }
+        return clusterIds;
+    }
+
+    private static int root(int[] roots, int i) {
+        while (roots[i] != i) {
+            i = roots[i];
+        }
+        return i;
+    }
+
+    private static int distinct(long[] values) {
+        java.util.Set<Long> set = new java.util.HashSet<Long>();
+        for (long value : values) {
+            set.add(value);
+        }
+        return set.size();
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.nilsimsa;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+
+public class NilsimsaCodecTest {
+
+    private static final List<NilsimsaDigest> DIGESTS = NilsimsaScannerTest.randomDigests(200, 53);
+
+    @Test
+    public void hexRoundTrip() {
+        for (NilsimsaDigest digest : DIGESTS) {
+            String hex = digest.toHex();
+            Assert.assertEquals(64, hex.length());
+            Assert.assertEquals(digest, NilsimsaCodec.parseHex(new StringBuilder("xx").append(hex.toUpperCase()), 2));
+
+            char[] chars = new char[65];
+            NilsimsaCodec.encodeHex(digest, chars, 1);
+            Assert.assertEquals(hex, new String(chars, 1, 64));
+            Assert.assertEquals("x" + hex, NilsimsaCodec.appendHex(digest, new StringBuilder("x")).toString());
+
+            int[] ints = new int[33];
+            NilsimsaCodec.decodeHex(hex, 0, ints, 1);
+            int[] expected = digest.toInts();
+            byte[] bytes = new byte[32];
+            NilsimsaCodec.decodeHex(hex, 0, bytes, 0);
+            for (int i = 0; i < 32; i++) {
+                Assert.assertEquals(expected[i], ints[i + 1]);
+                Assert.assertEquals(expected[i], bytes[i] & 0xFF);
+            }
+            Assert.assertArrayEquals(expected, Nilsimsa.unsafeToHex(hex));
+        }
+    }
+
+    @Test
+    public void rawAndBase64RoundTrip() {
+        for (NilsimsaDigest digest : DIGESTS) {
+            byte[] bytes = digest.toBytes();
+            Assert.assertEquals(digest, NilsimsaDigest.fromBytes(bytes));
+
+            String base64 = digest.toBase64();
+            Assert.assertEquals(44, base64.length());
+            Assert.assertEquals(base64(bytes), base64);
+            Assert.assertEquals(digest, NilsimsaDigest.fromBase64(base64));
+            Assert.assertEquals(digest, NilsimsaCodec.parseBase64("  " + base64, 2));
+        }
+        Assert.assertEquals("AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA=", new NilsimsaDigest(0, 0, 0, 0).toBase64());
+        Assert.assertEquals("//////////////////////////////////////////8=", new NilsimsaDigest(-1, -1, -1, -1).toBase64());
+    }
+
+    @Test
+    public void compareHexMatchesCompare() {
+        for (int i = 1; i < DIGESTS.size(); i++) {
+            NilsimsaDigest a = DIGESTS.get(i - 1);
+            NilsimsaDigest b = DIGESTS.get(i);
+            int expected = Nilsimsa.compare(a.toInts(), b.toInts());
+            Assert.assertEquals(expected, NilsimsaCodec.compareHex(a.toHex(), new StringBuilder(b.toHex())));
+            Assert.assertEquals(expected, Nilsimsa.compare(a.toHex().toUpperCase(), b.toHex()));
+            Assert.assertEquals(expected, NilsimsaCodec.compareHex("-" + a.toHex(), 1, b.toHex() + "-", 0));
+        }
+    }
+
+    @Test
+    public void invalidInput() {
+        String hex = DIGESTS.get(0).toHex();
+        String bad = hex.substring(0, 40) + "g" + hex.substring(41);
+        assertInvalid(bad, "Invalid hex character 'g' at index 40");
+        try {
+            NilsimsaCodec.compareHex(hex, bad);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("Invalid hex character 'g' at index 40", e.getMessage());
+        }
+        try {
+            NilsimsaCodec.compareHex(hex, hex.substring(0, 63));
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals("A hex digest must contain 64 characters, found 63", e.getMessage());
+        }
+
+        // the original String compare stays as lenient as it always was
+        Assert.assertEquals(128, Nilsimsa.compare(hex, hex.toUpperCase()));
+        Assert.assertEquals(128, Nilsimsa.compare(hex, hex + "00"));
+        Nilsimsa.compare(hex, bad);
+        try {
+            NilsimsaCodec.parseHex(hex, 1);
+            Assert.fail();
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+
+        String base64 = DIGESTS.get(0).toBase64();
+        for (String invalid : new String[]{
+                base64.substring(0, 43) + "A",
+                base64.substring(0, 5) + "*" + base64.substring(6),
+                base64.substring(0, 42) + "B="}) {
+            try {
+                NilsimsaDigest.fromBase64(invalid);
+                Assert.fail(invalid);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    private static void assertInvalid(String hex, String message) {
+        try {
+            NilsimsaDigest.fromHex(hex);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            Assert.assertEquals(message, e.getMessage());
+        }
+    }
+
+    /**
+     * Encode bytes with the standard alphabet the straightforward way, to
+     * check the table-driven encoder against.
+     */
+    private static String base64(byte[] bytes) {
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        StringBuilder b = new StringBuilder();
+        StringBuilder bits = new StringBuilder();
+        for (byte value : bytes) {
+            String s = Integer.toBinaryString(value & 0xFF);
+            bits.append("00000000".substring(s.length())).append(s);
+        }
+        while (bits.length() % 6 != 0) {
+            bits.append('0');
+        }
+        for (int i = 0; i < bits.length(); i += 6) {
+            b.append(alphabet.charAt(Integer.parseInt(bits.substring(i, i + 6), 2)));
+        }
+        while (b.length() % 4 != 0) {
+            b.append('=');
+        }
+        return b.toString();
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.nilsimsa;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.Random;
+
+public class NilsimsaDigestTest {
+
+    public static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Test
+    public void conversions() {
+        String[] values = new String[]{"", "ab", "abcdefgh", NilsimsaHashTest.LONG_VALUE,
+                NilsimsaHashTest.SIMILAR_1, NilsimsaHashTest.SIMILAR_2};
+        for (String value : values) {
+            Nilsimsa n = new Nilsimsa().update(value.getBytes(UTF8));
+            NilsimsaDigest digest = n.toDigest();
+
+            Assert.assertEquals(n.toHexDigest(), digest.toHex());
+            Assert.assertEquals(n.toHexDigest(), digest.toString());
+            Assert.assertArrayEquals(n.digest(), digest.toInts());
+            Assert.assertEquals(digest, NilsimsaDigest.fromInts(n.digest()));
+            Assert.assertEquals(digest, NilsimsaDigest.fromHex(n.toHexDigest()));
+
+            long[] packed = new long[6];
+            digest.writeTo(packed, 2);
+            Assert.assertEquals(digest, NilsimsaDigest.fromLongs(packed, 2));
+        }
+    }
+
+    @Test
+    public void compareMatchesNilsimsa() {
+        Random random = new Random(17);
+        for (int i = 0; i < 200; i++) {
+            byte[] a = new byte[random.nextInt(200)];
+            byte[] b = new byte[random.nextInt(200)];
+            random.nextBytes(a);
+            random.nextBytes(b);
+            Nilsimsa na = new Nilsimsa().update(a);
+            Nilsimsa nb = new Nilsimsa().update(b);
+
+            int expected = Nilsimsa.compare(na.digest(), nb.digest());
+            Assert.assertEquals(expected, na.toDigest().compare(nb.toDigest()));
+            Assert.assertEquals(expected, nb.toDigest().compare(na.toDigest()));
+            Assert.assertEquals(128 - expected, na.toDigest().distance(nb.toDigest()));
+        }
+
+        NilsimsaDigest similar1 = new Nilsimsa().update(NilsimsaHashTest.SIMILAR_1.getBytes(UTF8)).toDigest();
+        Assert.assertEquals(128, similar1.compare(similar1));
+    }
+
+    @Test
+    public void equalsAndHashCode() {
+        NilsimsaDigest a = NilsimsaDigest.fromHex("14c8118000000000030800000004042004189020001308014088003280000078");
+        NilsimsaDigest b = NilsimsaDigest.fromHex("14C8118000000000030800000004042004189020001308014088003280000078");
+        NilsimsaDigest c = NilsimsaDigest.fromHex("14c811840010000c0328200108040630041890200217582d4098103280000078");
+
+        Assert.assertEquals(a, b);
+        Assert.assertEquals(a.hashCode(), b.hashCode());
+        Assert.assertNotEquals(a, c);
+        Assert.assertEquals(0x14c8118000000000L, a.getWord(0));
+        Assert.assertEquals(0x4088003280000078L, a.getWord(3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidHex() {
+        NilsimsaDigest.fromHex("zz" + "14c8118000000000030800000004042004189020001308014088003280000078".substring(2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidHexLength() {
+        NilsimsaDigest.fromHex("14c8");
+    }
+}
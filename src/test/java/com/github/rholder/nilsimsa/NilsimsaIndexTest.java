@@ -0,0 +1,158 @@
+/*
+ * Copyright 2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.nilsimsa;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class NilsimsaIndexTest {
+
+    @Test
+    public void exactLookupMatchesLinearScan() {
+        List<NilsimsaDigest> digests = NilsimsaScannerTest.randomDigests(3000, 53);
+        NilsimsaIndex index = new NilsimsaIndex(16, 1);
+        for (int i = 0; i < digests.size(); i++) {
+            index.put(1000 + i, digests.get(i));
+        }
+        Assert.assertEquals(digests.size(), index.size());
+        Assert.assertEquals(31, index.getMaxExactDistance());
+
+        Random random = new Random(3);
+        for (int q = 0; q < 50; q++) {
+            NilsimsaDigest query = mutate(digests.get(random.nextInt(digests.size())), random, random.nextInt(20));
+            for (int threshold : new int[]{128, 120, 110, 97}) {
+                NilsimsaIndex.Result result = index.lookup(query, threshold);
+                Assert.assertTrue(result.isExact());
+                Assert.assertEquals(linearScan(query, digests, threshold), toMap(result));
+            }
+        }
+    }
+
+    @Test
+    public void approximateLookupIsReported() {
+        List<NilsimsaDigest> digests = NilsimsaScannerTest.randomDigests(500, 17);
+        NilsimsaIndex index = new NilsimsaIndex(4, 0);
+        for (int i = 0; i < digests.size(); i++) {
+            index.put(1000 + i, digests.get(i));
+        }
+
+        NilsimsaIndex.Result result = index.lookup(digests.get(0), 100);
+        Assert.assertFalse(result.isExact());
+
+        // everything found is still a verified match
+        Map<Long, Integer> expected = linearScan(digests.get(0), digests, 100);
+        for (Map.Entry<Long, Integer> entry : toMap(result).entrySet()) {
+            Assert.assertEquals(expected.get(entry.getKey()), entry.getValue());
+        }
+        Assert.assertTrue(result.getProbes() > 0);
+        Assert.assertTrue(result.getCandidates() >= result.size());
+    }
+
+    @Test
+    public void putReplacesAndRemoveDeletes() {
+        List<NilsimsaDigest> digests = NilsimsaScannerTest.randomDigests(200, 7);
+        NilsimsaIndex index = new NilsimsaIndex();
+        for (int i = 0; i < digests.size(); i++) {
+            index.put(i, digests.get(i));
+        }
+        for (int i = 0; i < digests.size(); i += 2) {
+            Assert.assertTrue(index.remove(i));
+        }
+        Assert.assertFalse(index.remove(0));
+        Assert.assertEquals(100, index.size());
+        Assert.assertNull(index.get(0));
+        Assert.assertEquals(digests.get(1), index.get(1));
+
+        for (int i = 0; i < digests.size(); i++) {
+            NilsimsaIndex.Result result = index.lookup(digests.get(i), 128);
+            Map<Long, Integer> found = toMap(result);
+            Assert.assertEquals((i & 1) == 1, found.containsKey((long) i));
+        }
+
+        // replace id 1 with the digest of id 0
+        index.put(1, digests.get(0));
+        Assert.assertEquals(100, index.size());
+        Assert.assertEquals(digests.get(0), index.get(1));
+        Assert.assertTrue(toMap(index.lookup(digests.get(0), 128)).containsKey(1L));
+    }
+
+    @Test
+    public void concurrentPutsAndLookups() throws Exception {
+        final List<NilsimsaDigest> digests = NilsimsaScannerTest.randomDigests(4000, 11);
+        final NilsimsaIndex index = new NilsimsaIndex();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = offset; i < digests.size(); i += 4) {
+                        index.put(i, digests.get(i));
+                        index.lookup(digests.get(i), 110);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(digests.size(), index.size());
+        for (int i = 0; i < digests.size(); i += 97) {
+            Assert.assertTrue(toMap(index.lookup(digests.get(i), 128)).containsKey((long) i));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidBlocks() {
+        new NilsimsaIndex(5, 1);
+    }
+
+    private static NilsimsaDigest mutate(NilsimsaDigest digest, Random random, int bits) {
+        long[] words = new long[4];
+        digest.writeTo(words, 0);
+        for (int i = 0; i < bits; i++) {
+            int bit = random.nextInt(256);
+            words[bit >> 6] ^= 1L << (bit & 63);
+        }
+        return NilsimsaDigest.fromLongs(words, 0);
+    }
+
+    private static Map<Long, Integer> linearScan(NilsimsaDigest query, List<NilsimsaDigest> digests, int threshold) {
+        Map<Long, Integer> expected = new HashMap<Long, Integer>();
+        for (int i = 0; i < digests.size(); i++) {
+            int score = query.compare(digests.get(i));
+            if (score >= threshold) {
+                expected.put((long) (1000 + i), score);
+            }
+        }
+        return expected;
+    }
+
+    private static Map<Long, Integer> toMap(NilsimsaIndex.Result result) {
+        Map<Long, Integer> found = new HashMap<Long, Integer>();
+        for (int i = 0; i < result.size(); i++) {
+            Assert.assertNull("Duplicate id in result", found.put(result.getId(i), result.getScore(i)));
+        }
+        return found;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.nilsimsa;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+public class NilsimsaMergeTest {
+
+    @Test
+    public void mergeRandomSplits() {
+        Random random = new Random(53);
+        for (int length = 0; length < 200; length += 1 + length / 8) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+            String expected = new Nilsimsa().update(data).toHexDigest();
+
+            for (int attempt = 0; attempt < 20; attempt++) {
+                // cut into pieces that are often shorter than the 4 character window
+                Nilsimsa merged = new Nilsimsa();
+                int offset = 0;
+                while (offset < length) {
+                    int size = Math.min(length - offset, random.nextInt(attempt < 10 ? 6 : 40));
+                    merged.merge(new Nilsimsa().update(data, offset, size));
+                    offset += size;
+                }
+                Assert.assertEquals(expected, merged.toHexDigest());
+
+                // a merged state keeps hashing as if the data had been seen sequentially
+                Assert.assertEquals(new Nilsimsa().update(data).update(data).toHexDigest(),
+                        merged.update(data).toHexDigest());
+            }
+        }
+    }
+
+    @Test
+    public void mergeIsAssociative() {
+        byte[] data = NilsimsaHashTest.LONG_VALUE.getBytes(NilsimsaHashTest.UTF8);
+        int[] tran = Nilsimsa.generateTransitions(17);
+
+        Nilsimsa a = new Nilsimsa(tran).update(data, 0, 2);
+        Nilsimsa b = new Nilsimsa(tran).update(data, 2, 3);
+        Nilsimsa c = new Nilsimsa(tran).update(data, 5, data.length - 5);
+        Nilsimsa right = new Nilsimsa(tran).update(data, 2, 3).merge(c);
+
+        Assert.assertEquals(new Nilsimsa(tran).update(data).toHexDigest(), a.merge(b).merge(c).toHexDigest());
+        Assert.assertEquals(new Nilsimsa(tran).update(data).toHexDigest(),
+                new Nilsimsa(tran).update(data, 0, 2).merge(right).toHexDigest());
+    }
+
+    @Test
+    public void hashSplit() throws IOException, InterruptedException {
+        byte[] data = new byte[300000];
+        new Random(17).nextBytes(data);
+        NilsimsaDigest expected = new Nilsimsa().update(data).toDigest();
+
+        File file = File.createTempFile("nilsimsa", ".bin");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+
+        NilsimsaBatchHasher hasher = new NilsimsaBatchHasher(Nilsimsa.TRAN53, 3, 1);
+        try {
+            for (int chunkSize : new int[]{1, 3, 4097, 1000000}) {
+                ByteBuffer buffer = ByteBuffer.wrap(data, 0, chunkSize == 1 ? 1000 : data.length);
+                NilsimsaDigest digest = hasher.hashSplit(buffer, chunkSize);
+                Assert.assertEquals(chunkSize == 1 ? new Nilsimsa().update(data, 0, 1000).toDigest() : expected, digest);
+                Assert.assertEquals(0, buffer.position());
+            }
+            Assert.assertEquals(expected, hasher.hashSplit(file, 65536));
+        } finally {
+            hasher.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void differentTables() {
+        new Nilsimsa().merge(new Nilsimsa(Nilsimsa.generateTransitions(17)).update(new byte[10]));
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.nilsimsa;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+public class NilsimsaMetricsTest {
+
+    @After
+    public void removeListener() {
+        NilsimsaMetrics.setListener(null);
+    }
+
+    @Test
+    public void statisticsCountEverything() throws IOException {
+        NilsimsaStatistics statistics = new NilsimsaStatistics();
+        NilsimsaMetrics.setListener(statistics);
+        Assert.assertSame(statistics, NilsimsaMetrics.getListener());
+
+        Nilsimsa n = new Nilsimsa().update(new byte[100]).update(new byte[20], 5, 10);
+        ByteBuffer direct = ByteBuffer.allocateDirect(30);
+        n.update(direct);
+        n.update(new ByteArrayInputStream(new byte[40]));
+        Assert.assertEquals(180, statistics.getBytesHashed());
+        Assert.assertEquals(4, statistics.getUpdateSizes().getCount());
+        Assert.assertEquals(100, statistics.getUpdateSizes().getMax());
+
+        String hex = n.toHexDigest();
+        n.digest();
+        n.toDigest();
+        n.digestInto(new long[4], 0);
+        n.appendHexDigest(new StringBuilder());
+        Assert.assertEquals(5, statistics.getDigests());
+        Assert.assertEquals(5, statistics.getDigestNanos().getCount());
+
+        Nilsimsa.compare(hex, hex);
+        n.toDigest().compare(n.toDigest());
+        List<NilsimsaDigest> digests = NilsimsaScannerTest.randomDigests(50, 53);
+        NilsimsaScanner.threshold(digests.get(0), NilsimsaScanner.pack(digests), 0);
+        Assert.assertEquals(52, statistics.getCompares());
+        Assert.assertEquals(1, statistics.getScanNanos().getCount());
+
+        statistics.reset();
+        Assert.assertEquals(0, statistics.getBytesHashed());
+        Assert.assertEquals(0, statistics.getUpdateSizes().getCount());
+    }
+
+    @Test
+    public void largeCorpusScansReportCompares() throws IOException {
+        List<NilsimsaDigest> digests = NilsimsaScannerTest.randomDigests(200, 17);
+        NilsimsaDigest query = digests.get(3);
+        NilsimsaIndex index = new NilsimsaIndex();
+        for (int i = 0; i < digests.size(); i++) {
+            index.put(i, digests.get(i));
+        }
+        NilsimsaVpTree tree = new NilsimsaVpTree(NilsimsaScanner.pack(digests));
+        File file = File.createTempFile("nilsimsa", ".nls");
+        file.deleteOnExit();
+        NilsimsaStoreWriter writer = new NilsimsaStoreWriter(file, Nilsimsa.TRAN53, false);
+        try {
+            for (NilsimsaDigest digest : digests) {
+                writer.append(digest);
+            }
+        } finally {
+            writer.close();
+        }
+        NilsimsaStore store = new NilsimsaStore(file);
+
+        NilsimsaStatistics statistics = new NilsimsaStatistics();
+        NilsimsaMetrics.setListener(statistics);
+        try {
+            store.threshold(query, 100);
+            Assert.assertEquals(200, statistics.getCompares());
+
+            statistics.reset();
+            NilsimsaIndex.Result result = index.lookup(query, 100);
+            Assert.assertEquals(result.getCandidates(), statistics.getCompares());
+            Assert.assertTrue(result.getCandidates() > 0);
+
+            statistics.reset();
+            tree.threshold(query, 0);
+            Assert.assertEquals(200, statistics.getCompares());
+            tree.threshold(query, 120);
+            tree.topK(query, 5);
+            Assert.assertTrue(statistics.getCompares() > 200);
+            Assert.assertEquals(3, statistics.getScanNanos().getCount());
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void disabledByDefault() {
+        NilsimsaStatistics statistics = new NilsimsaStatistics();
+        NilsimsaMetrics.setListener(statistics);
+        NilsimsaMetrics.setListener(null);
+        new Nilsimsa().update(new byte[100]).toHexDigest();
+        Assert.assertNull(NilsimsaMetrics.getListener());
+        Assert.assertEquals(0, statistics.getBytesHashed());
+        Assert.assertEquals(0, statistics.getDigests());
+    }
+
+    @Test
+    public void histogramPercentiles() {
+        NilsimsaStatistics.Histogram histogram = new NilsimsaStatistics().getUpdateSizes();
+        Assert.assertEquals(0, histogram.getPercentile(50));
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        histogram.record(0);
+        Assert.assertEquals(101, histogram.getCount());
+        Assert.assertEquals(1, histogram.getBucketCount(0));
+        Assert.assertEquals(1, histogram.getBucketCount(1));
+        Assert.assertEquals(2, histogram.getBucketCount(2));
+        Assert.assertEquals(63, histogram.getPercentile(50));
+        Assert.assertEquals(100, histogram.getPercentile(100));
+        Assert.assertEquals(0, histogram.getPercentile(0));
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.nilsimsa;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+
+public class NilsimsaPoolTest {
+
+    private static final byte[] MESSAGE = NilsimsaHashTest.LONG_VALUE.getBytes(NilsimsaHashTest.UTF8);
+
+    @Test
+    public void digestInto() {
+        Nilsimsa n = new NilsimsaPool().get().update(MESSAGE);
+        NilsimsaDigest expected = new Nilsimsa().update(MESSAGE).toDigest();
+
+        int[] ints = new int[34];
+        n.digestInto(ints, 2);
+        Assert.assertEquals(expected, NilsimsaDigest.fromInts(Arrays.copyOfRange(ints, 2, 34)));
+
+        byte[] bytes = new byte[33];
+        n.digestInto(bytes, 1);
+        for (int i = 0; i < 32; i++) {
+            Assert.assertEquals(ints[i + 2], bytes[i + 1] & 0xFF);
+        }
+
+        long[] words = new long[5];
+        n.digestInto(words, 1);
+        Assert.assertEquals(expected, NilsimsaDigest.fromLongs(words, 1));
+
+        char[] hex = new char[66];
+        n.toHexDigest(hex, 2);
+        Assert.assertEquals(expected.toHex(), new String(hex, 2, 64));
+        Assert.assertEquals("x" + expected.toHex(), n.appendHexDigest(new StringBuilder("x")).toString());
+    }
+
+    @Test
+    public void poolResetsPerThread() throws InterruptedException {
+        final NilsimsaPool pool = new NilsimsaPool(Nilsimsa.generateTransitions(17));
+        final Nilsimsa first = pool.get().update(MESSAGE);
+        Assert.assertSame(first, pool.get());
+        Assert.assertEquals(new Nilsimsa(Nilsimsa.generateTransitions(17)).toDigest(), first.toDigest());
+
+        final Nilsimsa[] other = new Nilsimsa[1];
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                other[0] = pool.get();
+            }
+        };
+        thread.start();
+        thread.join();
+        Assert.assertNotSame(first, other[0]);
+    }
+
+    @Test
+    public void steadyStateDoesNotAllocate() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        Assume.assumeTrue(allocations.isThreadAllocatedMemorySupported() && allocations.isThreadAllocatedMemoryEnabled());
+
+        NilsimsaPool pool = new NilsimsaPool();
+        long[] words = new long[4];
+        char[] hex = new char[64];
+        StringBuilder builder = new StringBuilder(64);
+
+        // warm up so that the thread's instance exists and the JIT has settled
+        long id = Thread.currentThread().getId();
+        for (int i = 0; i < 20000; i++) {
+            hash(pool, words, hex, builder);
+        }
+
+        long before = allocations.getThreadAllocatedBytes(id);
+        for (int i = 0; i < 10000; i++) {
+            hash(pool, words, hex, builder);
+        }
+        long allocated = allocations.getThreadAllocatedBytes(id) - before;
+
+        // a single 32 byte object per message would be over 300 KB
+        Assert.assertTrue("Allocated " + allocated + " bytes", allocated < 8 * 1024);
+    }
+
+    private static void hash(NilsimsaPool pool, long[] words, char[] hex, StringBuilder builder) {
+        Nilsimsa n = pool.get().update(MESSAGE);
+        n.digestInto(words, 0);
+        n.toHexDigest(hex, 0);
+        builder.setLength(0);
+        n.appendHexDigest(builder);
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.nilsimsa;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class NilsimsaRollingHasherTest {
+
+    @Test
+    public void everyWindowMatchesFreshHash() {
+        Random random = new Random(53);
+        byte[] data = new byte[700];
+        random.nextBytes(data);
+
+        for (int windowSize : new int[]{1, 2, 3, 4, 5, 6, 9, 64, 256}) {
+            for (int step : new int[]{1, 3, 64}) {
+                final List<Long> offsets = new ArrayList<Long>();
+                final List<NilsimsaDigest> digests = new ArrayList<NilsimsaDigest>();
+                NilsimsaRollingHasher hasher = new NilsimsaRollingHasher(windowSize, step, new NilsimsaRollingHasher.Listener() {
+                    @Override
+                    public void digest(long offset, NilsimsaDigest digest) {
+                        offsets.add(offset);
+                        digests.add(digest);
+                    }
+                });
+
+                // feed in uneven pieces
+                int offset = 0;
+                while (offset < data.length) {
+                    int length = Math.min(data.length - offset, random.nextInt(50));
+                    hasher.update(data, offset, length);
+                    offset += length;
+                }
+
+                int expectedCount = (data.length - windowSize) / step + 1;
+                Assert.assertEquals(expectedCount, digests.size());
+                for (int i = 0; i < digests.size(); i++) {
+                    int start = (int) (long) offsets.get(i);
+                    Assert.assertEquals((long) i * step, start);
+                    NilsimsaDigest expected = new Nilsimsa().update(data, start, windowSize).toDigest();
+                    Assert.assertEquals("window " + windowSize + " at " + start, expected, digests.get(i));
+                }
+                Assert.assertEquals(new Nilsimsa().update(data, data.length - windowSize, windowSize).toDigest(), hasher.digest());
+            }
+        }
+    }
+
+    @Test
+    public void partialWindow() {
+        byte[] data = NilsimsaHashTest.SIMILAR_1.getBytes(NilsimsaHashTest.UTF8);
+        NilsimsaRollingHasher hasher = new NilsimsaRollingHasher(Nilsimsa.generateTransitions(17), 1000, 1, new NilsimsaRollingHasher.Listener() {
+            @Override
+            public void digest(long offset, NilsimsaDigest digest) {
+                Assert.fail("No full window was seen");
+            }
+        });
+        hasher.update(data);
+        Assert.assertEquals(data.length, hasher.getPosition());
+        Assert.assertEquals(new Nilsimsa(Nilsimsa.generateTransitions(17)).update(data).toDigest(), hasher.digest());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidWindow() {
+        new NilsimsaRollingHasher(0, 1, null);
+    }
+
+    @Test
+    public void windowSizeLimit() {
+        for (int windowSize : new int[]{(1 << 29) + 1, 1 << 30, Integer.MAX_VALUE}) {
+            try {
+                new NilsimsaRollingHasher(windowSize, 1, null);
+                Assert.fail();
+            } catch (IllegalArgumentException e) {
+                Assert.assertEquals("Window size must be between 1 and 2^29, found " + windowSize, e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void largestWindow() {
+        // a 2^29 window needs a 1 GB ring
+        Assume.assumeTrue(Runtime.getRuntime().maxMemory() > (3L << 30));
+        NilsimsaRollingHasher hasher = new NilsimsaRollingHasher(1 << 29, 1, null);
+        Assert.assertEquals(new Nilsimsa().update(new byte[3]).toDigest(), hasher.update(new byte[3]).digest());
+    }
+}
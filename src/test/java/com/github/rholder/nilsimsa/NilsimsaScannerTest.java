@@ -0,0 +1,146 @@
+/*
+ * Copyright 2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.nilsimsa;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+public class NilsimsaScannerTest {
+
+    @Test
+    public void thresholdMatchesLinearCompare() {
+        List<NilsimsaDigest> digests = randomDigests(2000, 53);
+        long[] packed = NilsimsaScanner.pack(digests);
+        NilsimsaDigest query = digests.get(7);
+
+        for (int threshold : new int[]{-128, 0, 10, 20, 128}) {
+            NilsimsaMatches matches = NilsimsaScanner.threshold(query, packed, threshold);
+            int m = 0;
+            for (int i = 0; i < digests.size(); i++) {
+                int score = Nilsimsa.compare(query.toInts(), digests.get(i).toInts());
+                if (score >= threshold) {
+                    Assert.assertEquals(i, matches.getIndex(m));
+                    Assert.assertEquals(score, matches.getScore(m));
+                    m++;
+                }
+            }
+            Assert.assertEquals(m, matches.size());
+        }
+    }
+
+    @Test
+    public void topKMatchesSortedCompare() {
+        final List<NilsimsaDigest> digests = randomDigests(3000, 17);
+        long[] packed = NilsimsaScanner.pack(digests);
+        final NilsimsaDigest query = digests.get(42);
+
+        List<Integer> expected = new ArrayList<Integer>();
+        for (int i = 0; i < digests.size(); i++) {
+            expected.add(i);
+        }
+        Collections.sort(expected, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int diff = query.compare(digests.get(b)) - query.compare(digests.get(a));
+                return diff != 0 ? diff : a - b;
+            }
+        });
+
+        for (int k : new int[]{0, 1, 5, 100, 5000}) {
+            NilsimsaMatches matches = NilsimsaScanner.topK(query, packed, k);
+            Assert.assertEquals(Math.min(k, digests.size()), matches.size());
+            for (int i = 0; i < matches.size(); i++) {
+                int index = expected.get(i);
+                Assert.assertEquals(index, matches.getIndex(i));
+                Assert.assertEquals(query.compare(digests.get(index)), matches.getScore(i));
+            }
+        }
+        Assert.assertEquals(42, NilsimsaScanner.topK(query, packed, 1).getIndex(0));
+        Assert.assertEquals(128, NilsimsaScanner.topK(query, packed, 1).getScore(0));
+    }
+
+    @Test
+    public void topKWithThreshold() {
+        List<NilsimsaDigest> digests = randomDigests(500, 3);
+        long[] packed = NilsimsaScanner.pack(digests);
+        NilsimsaDigest query = digests.get(0);
+
+        NilsimsaMatches matches = NilsimsaScanner.topK(query, packed, 50, 20);
+        NilsimsaMatches all = NilsimsaScanner.threshold(query, packed, 20);
+        Assert.assertEquals(Math.min(50, all.size()), matches.size());
+        for (int i = 0; i < matches.size(); i++) {
+            Assert.assertTrue(matches.getScore(i) >= 20);
+        }
+    }
+
+    @Test
+    public void scoresMatchCompare() {
+        List<NilsimsaDigest> queries = randomDigests(7, 5);
+        List<NilsimsaDigest> digests = randomDigests(601, 53);
+        long[] packed = NilsimsaScanner.pack(digests);
+
+        int[] oneToMany = new int[digests.size() + 3];
+        NilsimsaScanner.scores(queries.get(0), packed, oneToMany, 3);
+        int[] manyToMany = NilsimsaScanner.scores(NilsimsaScanner.pack(queries), packed);
+        Assert.assertEquals(queries.size() * digests.size(), manyToMany.length);
+
+        for (int q = 0; q < queries.size(); q++) {
+            for (int c = 0; c < digests.size(); c++) {
+                int score = Nilsimsa.compare(queries.get(q).toInts(), digests.get(c).toInts());
+                Assert.assertEquals(score, manyToMany[q * digests.size() + c]);
+                if (q == 0) {
+                    Assert.assertEquals(score, oneToMany[c + 3]);
+                }
+            }
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void scoresOutOfBounds() {
+        NilsimsaScanner.scores(new NilsimsaDigest(0, 0, 0, 0), new long[8], new int[2], 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidPacked() {
+        NilsimsaScanner.threshold(new NilsimsaDigest(0, 0, 0, 0), new long[5], 0);
+    }
+
+    /**
+     * Return digests of random data, every other one a slight variation of
+     * the one before it so that there are some close matches.
+     */
+    static List<NilsimsaDigest> randomDigests(int count, long seed) {
+        Random random = new Random(seed);
+        List<NilsimsaDigest> digests = new ArrayList<NilsimsaDigest>();
+        byte[] data = new byte[128];
+        for (int i = 0; i < count; i++) {
+            if ((i & 1) == 0) {
+                random.nextBytes(data);
+            } else {
+                data[random.nextInt(data.length)] ^= 1;
+            }
+            digests.add(new Nilsimsa().update(data).toDigest());
+        }
+        return digests;
+    }
+}
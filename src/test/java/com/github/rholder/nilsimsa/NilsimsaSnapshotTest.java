@@ -0,0 +1,71 @@
+/*
+ * Copyright 2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.nilsimsa;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class NilsimsaSnapshotTest {
+
+    @Test
+    public void resumeFromSnapshot() {
+        Random random = new Random(53);
+        byte[] data = new byte[5000];
+        random.nextBytes(data);
+
+        for (int[] tran : new int[][]{Nilsimsa.TRAN53, Nilsimsa.generateTransitions(17)}) {
+            String expected = new Nilsimsa(tran).update(data).toHexDigest();
+            for (int split : new int[]{0, 1, 2, 3, 4, 5, 100, data.length}) {
+                for (boolean compress : new boolean[]{false, true}) {
+                    byte[] snapshot = new Nilsimsa(tran).update(data, 0, split).snapshot(compress);
+                    Nilsimsa resumed = Nilsimsa.restore(snapshot);
+                    resumed.update(data, split, data.length - split);
+                    Assert.assertEquals(expected, resumed.toHexDigest());
+
+                    // a restored state can still be merged into
+                    Nilsimsa merged = new Nilsimsa(tran).merge(Nilsimsa.restore(snapshot))
+                            .merge(new Nilsimsa(tran).update(data, split, data.length - split));
+                    Assert.assertEquals(expected, merged.toHexDigest());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void sizes() {
+        byte[] small = NilsimsaHashTest.SIMILAR_1.getBytes(NilsimsaHashTest.UTF8);
+        Nilsimsa n = new Nilsimsa().update(small);
+        Assert.assertEquals(1046, n.snapshot().length);
+        Assert.assertTrue(n.snapshot(true).length < 300);
+        Assert.assertEquals(1046 + 256, new Nilsimsa(Nilsimsa.generateTransitions(17)).snapshot().length);
+        Assert.assertArrayEquals(n.snapshot(), Nilsimsa.restore(n.snapshot(true)).snapshot());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void truncated() {
+        byte[] snapshot = new Nilsimsa().update(new byte[100]).snapshot();
+        Nilsimsa.restore(Arrays.copyOf(snapshot, snapshot.length - 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void notASnapshot() {
+        Nilsimsa.restore(new byte[1046]);
+    }
+}
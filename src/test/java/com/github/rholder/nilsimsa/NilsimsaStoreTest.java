@@ -0,0 +1,112 @@
+/*
+ * Copyright 2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.nilsimsa;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+public class NilsimsaStoreTest {
+
+    @Test
+    public void roundTripWithIds() throws IOException {
+        List<NilsimsaDigest> digests = NilsimsaScannerTest.randomDigests(1000, 53);
+        File file = write(digests, true);
+
+        // use tiny segments to cover lookups across segment boundaries
+        for (int segmentSize : new int[]{Integer.MAX_VALUE, 100, 40}) {
+            NilsimsaStore store = new NilsimsaStore(file, segmentSize);
+            try {
+                Assert.assertEquals(digests.size(), store.size());
+                Assert.assertTrue(store.hasIds());
+                Assert.assertEquals(Nilsimsa.transitionsId(Nilsimsa.TRAN53), store.getTransitionsId());
+                for (int i = 0; i < digests.size(); i++) {
+                    Assert.assertEquals(digests.get(i), store.getDigest(i));
+                    Assert.assertEquals(i * 31L, store.getId(i));
+                    Assert.assertEquals(digests.get(i).compare(digests.get(3)), store.compare(i, digests.get(3)));
+                }
+            } finally {
+                store.close();
+            }
+        }
+    }
+
+    @Test
+    public void thresholdMatchesScanner() throws IOException {
+        List<NilsimsaDigest> digests = NilsimsaScannerTest.randomDigests(1000, 17);
+        long[] packed = NilsimsaScanner.pack(digests);
+        NilsimsaStore store = new NilsimsaStore(write(digests, false), 320);
+        try {
+            Assert.assertFalse(store.hasIds());
+            for (int threshold : new int[]{0, 15, 128}) {
+                NilsimsaMatches expected = NilsimsaScanner.threshold(digests.get(5), packed, threshold);
+                NilsimsaMatches actual = store.threshold(digests.get(5), threshold);
+                Assert.assertArrayEquals(expected.getIndexes(), actual.getIndexes());
+                Assert.assertArrayEquals(expected.getScores(), actual.getScores());
+            }
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void emptyStore() throws IOException {
+        NilsimsaStore store = new NilsimsaStore(write(NilsimsaScannerTest.randomDigests(0, 1), false));
+        try {
+            Assert.assertEquals(0, store.size());
+            Assert.assertEquals(0, store.threshold(new NilsimsaDigest(0, 0, 0, 0), -128).size());
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void notAStore() throws IOException {
+        File file = File.createTempFile("nilsimsa", ".bin");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write("this is not a store of digests".getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        new NilsimsaStore(file);
+    }
+
+    private static File write(List<NilsimsaDigest> digests, boolean withIds) throws IOException {
+        File file = File.createTempFile("nilsimsa", ".nls");
+        file.deleteOnExit();
+        NilsimsaStoreWriter writer = new NilsimsaStoreWriter(file, Nilsimsa.TRAN53, withIds);
+        try {
+            for (int i = 0; i < digests.size(); i++) {
+                if (withIds) {
+                    writer.append(digests.get(i), i * 31L);
+                } else {
+                    writer.append(digests.get(i));
+                }
+            }
+            Assert.assertEquals(digests.size(), writer.getCount());
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+}
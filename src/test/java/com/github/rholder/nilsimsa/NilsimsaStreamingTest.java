@@ -0,0 +1,106 @@
+/*
+ * Copyright 2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.nilsimsa;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Random;
+
+public class NilsimsaStreamingTest {
+
+    private static final byte[] DATA = randomBytes(100000);
+    private static final String DIGEST = new Nilsimsa().update(DATA).toHexDigest();
+
+    @Test
+    public void arrayRanges() {
+        Random random = new Random(17);
+        Nilsimsa n = new Nilsimsa();
+        int offset = 0;
+        while (offset < DATA.length) {
+            int length = Math.min(DATA.length - offset, random.nextInt(3000));
+            n.update(DATA, offset, length);
+            offset += length;
+        }
+        Assert.assertEquals(DIGEST, n.toHexDigest());
+
+        // a range of a larger array only hashes the range
+        byte[] padded = new byte[DATA.length + 20];
+        System.arraycopy(DATA, 0, padded, 10, DATA.length);
+        Assert.assertEquals(DIGEST, new Nilsimsa().update(padded, 10, DATA.length).toHexDigest());
+    }
+
+    @Test
+    public void heapAndDirectBuffers() {
+        ByteBuffer heap = ByteBuffer.wrap(DATA);
+        Assert.assertEquals(DIGEST, new Nilsimsa().update(heap).toHexDigest());
+        Assert.assertFalse(heap.hasRemaining());
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(DATA.length);
+        direct.put(DATA).flip();
+
+        // feed the direct buffer in slices, covering the ramp-up across calls
+        Nilsimsa n = new Nilsimsa();
+        int[] limits = new int[]{1, 2, 3, 7, 5000, DATA.length};
+        for (int limit : limits) {
+            direct.limit(limit);
+            n.update(direct);
+            Assert.assertEquals(limit, direct.position());
+        }
+        Assert.assertEquals(DIGEST, n.toHexDigest());
+    }
+
+    @Test
+    public void streamsAndChannels() throws IOException {
+        Assert.assertEquals(DIGEST, new Nilsimsa().update(new ByteArrayInputStream(DATA)).toHexDigest());
+        Assert.assertEquals(DIGEST, new Nilsimsa().update(Channels.newChannel(new ByteArrayInputStream(DATA))).toHexDigest());
+    }
+
+    @Test
+    public void files() throws IOException {
+        File file = File.createTempFile("nilsimsa", ".bin");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(DATA);
+        } finally {
+            out.close();
+        }
+        Assert.assertEquals(DIGEST, Nilsimsa.hashFile(file).toHex());
+
+        File empty = File.createTempFile("nilsimsa", ".bin");
+        empty.deleteOnExit();
+        Assert.assertEquals(new Nilsimsa().toDigest(), Nilsimsa.hashFile(empty));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void invalidRange() {
+        new Nilsimsa().update(DATA, DATA.length - 1, 2);
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] data = new byte[length];
+        new Random(53).nextBytes(data);
+        return data;
+    }
+}
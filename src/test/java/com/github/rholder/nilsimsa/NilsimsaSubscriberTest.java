@@ -0,0 +1,163 @@
+/*
+ * Copyright 2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.nilsimsa;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class NilsimsaSubscriberTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Test
+    public void hashesChunksWithinDemand() throws Exception {
+        byte[] data = new byte[50000];
+        new Random(53).nextBytes(data);
+
+        final NilsimsaSubscriber subscriber = new NilsimsaSubscriber(Nilsimsa.TRAN53, 3);
+        final AtomicInteger notified = new AtomicInteger();
+        subscriber.addListener(new Runnable() {
+            @Override
+            public void run() {
+                notified.incrementAndGet();
+            }
+        }, DIRECT);
+
+        // a publisher that only sends what was requested, from one direct buffer it reuses
+        Publisher publisher = new Publisher();
+        subscriber.onSubscribe(publisher);
+        ByteBuffer direct = ByteBuffer.allocateDirect(1000);
+        for (int offset = 0; offset < data.length; offset += 1000) {
+            Assert.assertTrue("sent more than requested", publisher.demand > 0);
+            publisher.demand--;
+            direct.clear();
+            direct.put(data, offset, 1000).flip();
+            subscriber.onNext(direct);
+            Assert.assertFalse(direct.hasRemaining());
+            Assert.assertTrue(publisher.demand <= 3);
+        }
+        Assert.assertFalse(subscriber.isDone());
+        Assert.assertEquals(0, notified.get());
+        subscriber.onComplete();
+
+        Assert.assertTrue(subscriber.isDone());
+        Assert.assertEquals(1, notified.get());
+        Assert.assertEquals(new Nilsimsa().update(data).toDigest(), subscriber.get());
+        Assert.assertEquals(subscriber.get(), subscriber.get(1, TimeUnit.SECONDS));
+
+        // a listener added late runs right away, and later signals are ignored
+        subscriber.addListener(new Runnable() {
+            @Override
+            public void run() {
+                notified.incrementAndGet();
+            }
+        }, DIRECT);
+        Assert.assertEquals(2, notified.get());
+        subscriber.onError(new IOException());
+        Assert.assertFalse(subscriber.cancel(true));
+
+        Publisher second = new Publisher();
+        subscriber.onSubscribe(second);
+        Assert.assertTrue(second.cancelled);
+    }
+
+    @Test
+    public void errorFailsTheDigest() throws InterruptedException {
+        NilsimsaSubscriber subscriber = new NilsimsaSubscriber();
+        subscriber.onSubscribe(new Publisher());
+        subscriber.onNext(ByteBuffer.wrap(new byte[10]));
+        IOException error = new IOException("connection reset");
+        subscriber.onError(error);
+        try {
+            subscriber.get();
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertSame(error, e.getCause());
+        }
+    }
+
+    @Test
+    public void cancelStopsThePublisher() throws Exception {
+        NilsimsaSubscriber subscriber = new NilsimsaSubscriber();
+        Publisher publisher = new Publisher();
+        subscriber.onSubscribe(publisher);
+        Assert.assertTrue(subscriber.cancel(false));
+        Assert.assertTrue(publisher.cancelled);
+        Assert.assertTrue(subscriber.isCancelled());
+        subscriber.onComplete();
+        try {
+            subscriber.get();
+            Assert.fail();
+        } catch (CancellationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void cancelRacingSubscribeStillCancels() throws Exception {
+        for (int i = 0; i < 2000; i++) {
+            final NilsimsaSubscriber subscriber = new NilsimsaSubscriber();
+            final Publisher publisher = new Publisher();
+            Thread subscribe = new Thread() {
+                @Override
+                public void run() {
+                    subscriber.onSubscribe(publisher);
+                }
+            };
+            subscribe.start();
+            subscriber.cancel(false);
+            subscribe.join();
+            Assert.assertTrue("Iteration " + i, publisher.cancelled);
+        }
+    }
+
+    @Test(expected = TimeoutException.class)
+    public void getTimesOut() throws Exception {
+        new NilsimsaSubscriber().get(10, TimeUnit.MILLISECONDS);
+    }
+
+    private static final class Publisher implements NilsimsaSubscriber.Subscription {
+
+        long demand;
+        boolean cancelled;
+
+        @Override
+        public void request(long n) {
+            demand += n;
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.nilsimsa;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class NilsimsaTablesTest {
+
+    @Test
+    public void tran3MatchesReference() {
+        for (int target : new int[]{53, 0, 17, 255}) {
+            int[] tran = Nilsimsa.generateTransitions(target);
+            NilsimsaTables tables = NilsimsaTables.forTransitions(tran);
+            for (int n = 0; n < 8; n++) {
+                for (int a = 0; a < 256; a += 3) {
+                    for (int b = 0; b < 256; b += 5) {
+                        for (int c = 0; c < 256; c += 7) {
+                            Assert.assertEquals(referenceTran3(tran, a, b, c, n), tables.tran3(a, b, c, n));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void updateMatchesReference() {
+        Random random = new Random(53);
+        for (int target : new int[]{53, 17, 200}) {
+            int[] tran = Nilsimsa.generateTransitions(target);
+            for (int length = 0; length < 300; length += 1 + length / 4) {
+                byte[] data = new byte[length];
+                random.nextBytes(data);
+
+                int[] expected = referenceDigest(tran, data);
+                Assert.assertArrayEquals(expected, new Nilsimsa(tran).update(data).digest());
+
+                // feed the same data in randomly sized pieces, crossing the ramp-up in between calls
+                Nilsimsa chunked = new Nilsimsa(tran);
+                int offset = 0;
+                while (offset < length) {
+                    int size = Math.min(length - offset, random.nextInt(6));
+                    byte[] piece = new byte[size];
+                    System.arraycopy(data, offset, piece, 0, size);
+                    chunked.update(piece);
+                    offset += size;
+                }
+                Assert.assertArrayEquals(expected, chunked.digest());
+            }
+        }
+    }
+
+    @Test
+    public void tablesAreShared() {
+        Assert.assertSame(NilsimsaTables.TRAN53, NilsimsaTables.forTransitions(Nilsimsa.generateTransitions(53)));
+
+        NilsimsaTables tables = NilsimsaTables.forTransitions(Nilsimsa.generateTransitions(17));
+        Assert.assertSame(tables, NilsimsaTables.forTransitions(Nilsimsa.generateTransitions(17)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidTransitions() {
+        new Nilsimsa(new int[10]);
+    }
+
+    /**
+     * This is the original, unoptimized trigram hash.
+     */
+    private static int referenceTran3(int[] transitions, int a, int b, int c, int n) {
+        return (((transitions[(a + n) & 255] ^ transitions[b] * (n + n + 1)) + transitions[c ^ transitions[n]]) & 255);
+    }
+
+    /**
+     * This is the original, unoptimized update and digest loop.
+     */
+    private static int[] referenceDigest(int[] tran, byte[] data) {
+        int[] acc = new int[256];
+        int[] window = new int[]{-1, -1, -1, -1};
+        long count = 0;
+        for (byte character : data) {
+            int ch = character & 0xFF;
+            count++;
+            if (window[1] > -1) {
+                acc[referenceTran3(tran, ch, window[0], window[1], 0)] += 1;
+            }
+            if (window[2] > -1) {
+                acc[referenceTran3(tran, ch, window[0], window[2], 1)] += 1;
+                acc[referenceTran3(tran, ch, window[1], window[2], 2)] += 1;
+            }
+            if (window[3] > -1) {
+                acc[referenceTran3(tran, ch, window[0], window[3], 3)] += 1;
+                acc[referenceTran3(tran, ch, window[1], window[3], 4)] += 1;
+                acc[referenceTran3(tran, ch, window[2], window[3], 5)] += 1;
+                acc[referenceTran3(tran, window[3], window[0], ch, 6)] += 1;
+                acc[referenceTran3(tran, window[3], window[2], ch, 7)] += 1;
+            }
+            window[3] = window[2];
+            window[2] = window[1];
+            window[1] = window[0];
+            window[0] = ch;
+        }
+
+        long total = 0;
+        if (count == 3) {
+            total = 1;
+        } else if (count == 4) {
+            total = 4;
+        } else if (count > 4) {
+            total = 8 * count - 28;
+        }
+        long threshold = total / 256;
+        int[] code = new int[32];
+        for (int i = 0; i < 256; i++) {
+            if (acc[i] > threshold) {
+                code[31 - (i >> 3)] += 1 << (i & 7);
+            }
+        }
+        return code;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.nilsimsa;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+public class NilsimsaTextTest {
+
+    private static final String[] CHARSETS = {"UTF-8", "ISO-8859-1", "US-ASCII", "UTF-16", "windows-1252", "Shift_JIS"};
+
+    @Test
+    public void sameAsGetBytes() {
+        Random random = new Random(7);
+        for (int length : new int[]{0, 1, 2, 3, 5, 57, 1023, 1024, 1025, 5000}) {
+            String text = randomText(random, length);
+            for (String name : CHARSETS) {
+                Charset charset = Charset.forName(name);
+                NilsimsaDigest expected = new Nilsimsa().update(text.getBytes(charset)).toDigest();
+                String message = name + " " + length;
+
+                Assert.assertEquals(message, expected, new Nilsimsa().update(text, charset).toDigest());
+                Assert.assertEquals(message, expected, new Nilsimsa().update(new StringBuilder(text), charset).toDigest());
+                Assert.assertEquals(message, expected, new Nilsimsa().update(CharBuffer.wrap(text), charset).toDigest());
+
+                char[] chars = ("xy" + text + "z").toCharArray();
+                Assert.assertEquals(message, expected, new Nilsimsa().update(chars, 2, length, charset).toDigest());
+                CharBuffer slice = CharBuffer.wrap(chars, 2, length).slice();
+                Assert.assertEquals(message, expected, new Nilsimsa().update(slice, charset).toDigest());
+            }
+            Assert.assertEquals(new Nilsimsa().update(text.getBytes(NilsimsaHashTest.UTF8)).toDigest(),
+                    new Nilsimsa().update(text).toDigest());
+        }
+    }
+
+    @Test
+    public void surrogates() {
+        String[] texts = {
+                "\uD83D\uDE00", "a\uD83D", "\uDE00b", "\uDE00\uD83D", "abc\uD83D\uD83D\uDE00def", "\uD83D"
+        };
+        for (String text : texts) {
+            for (String name : CHARSETS) {
+                Charset charset = Charset.forName(name);
+                Assert.assertEquals(name, new Nilsimsa().update(text.getBytes(charset)).toDigest(),
+                        new Nilsimsa().update(text, charset).toDigest());
+            }
+        }
+
+        // a pair split across the internal chunk boundary still encodes as one character
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 1023; i++) {
+            text.append('a');
+        }
+        text.append("\uD83D\uDE00tail");
+        Assert.assertEquals(new Nilsimsa().update(text.toString().getBytes(NilsimsaHashTest.UTF8)).toDigest(),
+                new Nilsimsa().update(text.toString()).toDigest());
+    }
+
+    @Test
+    public void incremental() {
+        String text = NilsimsaHashTest.LONG_VALUE + " \u00e9t\u00e9 \u4e2d\u6587";
+        Nilsimsa n = new Nilsimsa();
+        for (int i = 0; i < text.length(); i++) {
+            n.update(text.subSequence(i, i + 1));
+        }
+        Assert.assertEquals(new Nilsimsa().update(text.getBytes(NilsimsaHashTest.UTF8)).toDigest(), n.toDigest());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void outOfBounds() {
+        new Nilsimsa().update(new char[4], 2, 3);
+    }
+
+    private static String randomText(Random random, int length) {
+        StringBuilder text = new StringBuilder(length);
+        while (text.length() < length) {
+            int kind = random.nextInt(10);
+            if (kind < 5) {
+                text.append((char) (0x20 + random.nextInt(0x5F)));
+            } else if (kind < 7) {
+                text.append((char) (0x80 + random.nextInt(0x80)));
+            } else if (kind < 8) {
+                text.append((char) (0x100 + random.nextInt(0xD700)));
+            } else if (kind < 9) {
+                text.appendCodePoint(0x10000 + random.nextInt(0x100000));
+            } else {
+                text.append((char) (0xD800 + random.nextInt(0x800)));
+            }
+        }
+        text.setLength(length);
+        return text.toString();
+    }
+}
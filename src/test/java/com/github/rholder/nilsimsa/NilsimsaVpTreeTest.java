@@ -0,0 +1,81 @@
+/*
+ * Copyright 2015 Ray Holder
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.rholder.nilsimsa;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class NilsimsaVpTreeTest {
+
+    @Test
+    public void matchesLinearScan() throws InterruptedException {
+        List<NilsimsaDigest> digests = NilsimsaScannerTest.randomDigests(3000, 53);
+        long[] packed = NilsimsaScanner.pack(digests);
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            NilsimsaVpTree sequential = new NilsimsaVpTree(packed);
+            NilsimsaVpTree parallel = new NilsimsaVpTree(packed, executor);
+            Assert.assertEquals(digests.size(), parallel.size());
+
+            for (int q = 0; q < 40; q++) {
+                NilsimsaDigest query = digests.get(q * 71);
+                for (NilsimsaVpTree tree : new NilsimsaVpTree[]{sequential, parallel}) {
+                    for (int threshold : new int[]{128, 120, 100, 60, 0, -128}) {
+                        assertSame(NilsimsaScanner.threshold(query, packed, threshold), tree.threshold(query, threshold));
+                        assertSame(NilsimsaScanner.topK(query, packed, 5, threshold), tree.topK(query, 5, threshold));
+                    }
+                    for (int k : new int[]{0, 1, 10, 3000, 5000}) {
+                        assertSame(NilsimsaScanner.topK(query, packed, k), tree.topK(query, k));
+                    }
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void duplicatesAndSmallTrees() {
+        // identical digests all land at distance 0 from any vantage point
+        NilsimsaDigest digest = new Nilsimsa().update(NilsimsaHashTest.LONG_VALUE.getBytes(NilsimsaHashTest.UTF8)).toDigest();
+        long[] packed = new long[400];
+        for (int i = 0; i < 100; i++) {
+            digest.writeTo(packed, i << 2);
+        }
+        NilsimsaVpTree tree = new NilsimsaVpTree(packed);
+        Assert.assertEquals(100, tree.threshold(digest, 128).size());
+        Assert.assertArrayEquals(new int[]{0, 1, 2}, tree.topK(digest, 3).getIndexes());
+
+        Assert.assertEquals(0, new NilsimsaVpTree(new long[0]).threshold(digest, -128).size());
+        Assert.assertEquals(1, new NilsimsaVpTree(new long[4]).topK(digest, 2).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidPacked() {
+        new NilsimsaVpTree(new long[5]);
+    }
+
+    private static void assertSame(NilsimsaMatches expected, NilsimsaMatches actual) {
+        Assert.assertArrayEquals(expected.getIndexes(), actual.getIndexes());
+        Assert.assertArrayEquals(expected.getScores(), actual.getScores());
+    }
+}